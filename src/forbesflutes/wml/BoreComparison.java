@@ -0,0 +1,232 @@
+package forbesflutes.wml;
+
+import java.util.Arrays;
+import java.util.List;
+
+import forbesflutes.wml.UnitView.SectionView;
+
+/** Compares the assembled bores of a number of instruments with a reference bore (e.g. a
+ *  maker's master). Each bore is aligned with the reference, by the top of the bore, by the
+ *  blow hole, or by the shift that fits best, and its diameter is compared with the
+ *  reference's at points of a grid along the reference. Bores are given as views (see
+ *  UnitView), so instruments measured in different units can be compared in one. The
+ *  instruments are compared concurrently (see PartProcessor). */
+public class BoreComparison {
+   public enum Alignment {TOP, BLOW_HOLE, BEST_FIT}
+
+   public static final int NUM_LARGEST = 5;  // deviations located for each instrument
+   private static final double SEARCH_FRACTION = .2;  // of the reference's length, for BEST_FIT
+   private static final int REFINE_STEPS = 40;
+
+   public final double[] grid;            // x values along the reference bore
+   public final double[] referenceDiams;  // at the grid points
+   public final List<Deviation> deviations;  // in the order of the instruments
+
+   /** How one instrument's bore differs from the reference. */
+   public static class Deviation {
+      /** Added to the instrument's x values to align it with the reference. */
+      public final double shift;
+      /** Instrument diameter minus reference diameter at each grid point; NaN where the
+       *  aligned instrument doesn't reach. */
+      public final double[] differences;
+      public final int numCompared;  // grid points where the bores overlap
+      public final double rms;
+      public final double maxAbs;
+      /** The x values (in reference coordinates) of the largest local deviations, largest
+       *  first; at most NUM_LARGEST. */
+      public final double[] largestDeviationXs;
+      private final double[] grid;
+
+      private Deviation(double shift, double[] grid, double[] differences) {
+         this.shift = shift;
+         this.grid = grid;
+         this.differences = differences;
+         int count = 0;
+         double sumSquares = 0., max = 0.;
+         for(double difference: differences) {
+            if(Double.isNaN(difference)) continue;
+            ++count;
+            sumSquares += difference * difference;
+            max = Math.max(max, Math.abs(difference));
+         }
+         numCompared = count;
+         rms = count == 0 ? Double.NaN : Math.sqrt(sumSquares / count);
+         maxAbs = count == 0 ? Double.NaN : max;
+         largestDeviationXs = findLargest(grid, differences);
+      }
+
+      /** Get {x values, differences} for the points where the bores overlap, e.g. for a
+       *  chart series. */
+      public double[][] getXYValues() {
+         double[] xs = new double[numCompared];
+         double[] ys = new double[numCompared];
+         int k = 0;
+         for(int j = 0; j < differences.length; j++) {
+            if(Double.isNaN(differences[j])) continue;
+            xs[k] = grid[j];
+            ys[k++] = differences[j];
+         }
+         return new double[][] {xs, ys};
+      }
+   }
+
+   private BoreComparison(double[] grid, double[] referenceDiams, List<Deviation> deviations) {
+      this.grid = grid;
+      this.referenceDiams = referenceDiams;
+      this.deviations = deviations;
+   }
+
+   /** Compare the others' bores with the reference's, on a grid with points gridStep
+    *  apart (in the views' units). All the views must have the same units. For BLOW_HOLE
+    *  alignment every section must have a blow hole. */
+   public static BoreComparison compare(SectionView reference, List<SectionView> others,
+      final Alignment alignment, double gridStep) {
+      if(!(gridStep > 0.))
+         throw new IllegalArgumentException("Bad grid step: " + gridStep);
+      final ProfileCurve referenceCurve = getBoreCurve(reference);
+      if(referenceCurve.getNumPoints() < 2)
+         throw new IllegalArgumentException("Reference bore has fewer than 2 points");
+      double xMin = referenceCurve.getXMin(), xMax = referenceCurve.getXMax();
+      final double[] grid = BoreResampler.uniformGrid(xMin, xMax,
+         2 + (int) Math.ceil((xMax - xMin) / gridStep));
+      final double[] referenceDiams = new BoreResampler(grid).resample(referenceCurve);
+      final SectionView ref = reference;
+      List<Deviation> deviations = PartProcessor.map(others,
+         new PartProcessor.Task<SectionView, Deviation>() {
+            public Deviation run(SectionView other) {
+               ProfileCurve curve = getBoreCurve(other);
+               double shift = findShift(ref, referenceCurve, other, curve, alignment, grid, referenceDiams);
+               return new Deviation(shift, grid, differences(curve, shift, grid, referenceDiams));
+            }
+         });
+      return new BoreComparison(grid, referenceDiams, deviations);
+   }
+
+   private static ProfileCurve getBoreCurve(SectionView view) {
+      return new ProfileCurve(view.getBoreXValues(), view.getBoreYValues());
+   }
+
+   private static double findShift(SectionView reference, ProfileCurve referenceCurve,
+      SectionView other, ProfileCurve curve, Alignment alignment, double[] grid,
+      double[] referenceDiams) {
+      if(curve.getNumPoints() == 0)
+         throw new IllegalArgumentException("Bore has no points");
+      double topShift = referenceCurve.getX(0) - curve.getX(0);
+      switch(alignment) {
+         case TOP:
+            return topShift;
+         case BLOW_HOLE:
+            if(!reference.hasBlowHole() || !other.hasBlowHole())
+               throw new IllegalArgumentException("Can't align by blow hole: a section has none");
+            return reference.getBlowHoleXCoord() - other.getBlowHoleXCoord();
+         default:
+            return findBestShift(curve, topShift, grid, referenceDiams);
+      }
+   }
+
+   // Search shifts around topShift, a grid step apart, for the least mean square
+   // difference, then refine the best by golden section search between its neighbours.
+   private static double findBestShift(ProfileCurve curve, double topShift, double[] grid,
+      double[] referenceDiams) {
+      double step = grid[1] - grid[0];
+      double range = SEARCH_FRACTION * (grid[grid.length - 1] - grid[0]);
+      int numSteps = (int) Math.ceil(range / step);
+      double[][] scratch = new double[2][grid.length];
+      double bestShift = topShift;
+      double bestScore = Double.POSITIVE_INFINITY;
+      for(int i = -numSteps; i <= numSteps; i++) {
+         double shift = topShift + i * step;
+         double score = meanSquare(curve, shift, grid, referenceDiams, scratch);
+         if(score < bestScore) {
+            bestScore = score;
+            bestShift = shift;
+         }
+      }
+      if(bestScore == Double.POSITIVE_INFINITY) return topShift;
+      double ratio = (Math.sqrt(5.) - 1.) / 2.;
+      double lo = bestShift - step, hi = bestShift + step;
+      double a = hi - ratio * (hi - lo), b = lo + ratio * (hi - lo);
+      double scoreA = meanSquare(curve, a, grid, referenceDiams, scratch);
+      double scoreB = meanSquare(curve, b, grid, referenceDiams, scratch);
+      for(int i = 0; i < REFINE_STEPS; i++) {
+         if(scoreA < scoreB) {
+            hi = b;
+            b = a;
+            scoreB = scoreA;
+            a = hi - ratio * (hi - lo);
+            scoreA = meanSquare(curve, a, grid, referenceDiams, scratch);
+         }
+         else {
+            lo = a;
+            a = b;
+            scoreA = scoreB;
+            b = lo + ratio * (hi - lo);
+            scoreB = meanSquare(curve, b, grid, referenceDiams, scratch);
+         }
+      }
+      double refined = .5 * (lo + hi);
+      return meanSquare(curve, refined, grid, referenceDiams, scratch) <= bestScore ? refined : bestShift;
+   }
+
+   // the mean square difference where the bores overlap; infinite if they overlap by less
+   // than half the grid
+   private static double meanSquare(ProfileCurve curve, double shift, double[] grid,
+      double[] referenceDiams, double[][] scratch) {
+      double[] differences = differences(curve, shift, grid, referenceDiams, scratch[0], scratch[1]);
+      int count = 0;
+      double sumSquares = 0.;
+      for(double difference: differences) {
+         if(Double.isNaN(difference)) continue;
+         ++count;
+         sumSquares += difference * difference;
+      }
+      return 2 * count < grid.length ? Double.POSITIVE_INFINITY : sumSquares / count;
+   }
+
+   private static double[] differences(ProfileCurve curve, double shift, double[] grid,
+      double[] referenceDiams) {
+      return differences(curve, shift, grid, referenceDiams, new double[grid.length],
+         new double[grid.length]);
+   }
+
+   // the curve, shifted, minus the reference at each grid point, into out; shiftedGrid
+   // is scratch space
+   private static double[] differences(ProfileCurve curve, double shift, double[] grid,
+      double[] referenceDiams, double[] shiftedGrid, double[] out) {
+      // the grid in the curve's coordinates
+      for(int j = 0; j < grid.length; j++)
+         shiftedGrid[j] = grid[j] - shift;
+      new BoreResampler(shiftedGrid).resample(curve, out, 0);
+      double curveMin = curve.getXMin(), curveMax = curve.getXMax();
+      for(int j = 0; j < grid.length; j++) {
+         double x = shiftedGrid[j];
+         out[j] = x < curveMin || x > curveMax ? Double.NaN : out[j] - referenceDiams[j];
+      }
+      return out;
+   }
+
+   // the x values of the largest local maxima of |differences|, largest first
+   private static double[] findLargest(double[] grid, double[] differences) {
+      double[] xs = new double[NUM_LARGEST];
+      double[] sizes = new double[NUM_LARGEST];
+      int count = 0;
+      for(int j = 0; j < differences.length; j++) {
+         double size = Math.abs(differences[j]);
+         if(Double.isNaN(size) || size == 0.) continue;
+         if(j > 0 && !(size >= Math.abs(differences[j - 1]) || Double.isNaN(differences[j - 1]))) continue;
+         if(j < differences.length - 1 && !(size > Math.abs(differences[j + 1]) || Double.isNaN(differences[j + 1]))) continue;
+         // insert in order of size
+         int k = Math.min(count, NUM_LARGEST - 1);
+         if(count == NUM_LARGEST && size <= sizes[k]) continue;
+         while(k > 0 && sizes[k - 1] < size) {
+            sizes[k] = sizes[k - 1];
+            xs[k] = xs[k - 1];
+            --k;
+         }
+         sizes[k] = size;
+         xs[k] = grid[j];
+         if(count < NUM_LARGEST) ++count;
+      }
+      return Arrays.copyOf(xs, count);
+   }
+}
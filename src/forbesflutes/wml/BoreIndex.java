@@ -0,0 +1,256 @@
+package forbesflutes.wml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import forbesflutes.wml.UnitView.SectionView;
+import forbesflutes.wml.WMLData.Part;
+import forbesflutes.wml.WMLData.Units;
+
+/** An index of instruments by bore, for finding the ones most like a given one. Each
+ *  instrument is described by a feature vector (see getFeatures): its assembled bore
+ *  resampled at points spread evenly along its length, its length, and the positions and
+ *  diameters of its tone holes. Instruments are compared by the euclidean distance between
+ *  their vectors.
+ *
+ *  The vectors are kept in a vantage point tree, so a nearest neighbour query only looks
+ *  at a small part of a large index rather than at every instrument. Items can be added at
+ *  any time (e.g. as new files are found); a subtree that adding has left lopsided is
+ *  rebuilt. Not thread safe. */
+public class BoreIndex<T> {
+   public static final int NUM_BORE_POINTS = 64;
+   public static final int MAX_TONE_HOLES = 10;
+   public static final int NUM_FEATURES = NUM_BORE_POINTS + 1 + 2 * MAX_TONE_HOLES;
+   /** Weights the length (in mm) against the bore diameters. */
+   public static final double LENGTH_WEIGHT = .1;
+   /** Scales tone hole positions (as fractions of the length) to be comparable with diameters. */
+   public static final double POSITION_SCALE = 100.;
+
+   private static final int LEAF_SIZE = 16;
+   private static final double MAX_IMBALANCE = .75;  // of a subtree's size, in one child
+
+   private Node<T> root;
+   private final Random random = new Random(0);
+
+   /** One of the items nearest a query. */
+   public static class Neighbor<T> {
+      public final T item;
+      public final double distance;
+
+      Neighbor(T item, double distance) {
+         this.item = item;
+         this.distance = distance;
+      }
+   }
+
+   private static class Entry<T> {
+      final T item;
+      final double[] features;
+
+      Entry(T item, double[] features) {
+         this.item = item;
+         this.features = features;
+      }
+   }
+
+   // A leaf holds its entries; an internal node holds a vantage point, with the entries
+   // within radius of it inside and the rest outside.
+   private static class Node<T> {
+      List<Entry<T>> entries;  // null if internal
+      Entry<T> vantage;
+      double radius;
+      Node<T> inside, outside;
+      int size;
+   }
+
+   public int size() {return root == null ? 0 : root.size;}
+
+   /** Add an item with features from getFeatures. */
+   public void add(T item, double[] features) {
+      if(features.length != NUM_FEATURES)
+         throw new IllegalArgumentException("Expected " + NUM_FEATURES + " features, got " + features.length);
+      Entry<T> entry = new Entry<T>(item, features);
+      if(root == null) {
+         root = new Node<T>();
+         root.entries = new ArrayList<Entry<T>>();
+      }
+      root = insert(root, entry);
+   }
+
+   /** Find the k items nearest the features, nearest first. The result includes an item
+    *  with these very features if there is one. */
+   public List<Neighbor<T>> nearest(double[] features, int k) {
+      if(features.length != NUM_FEATURES)
+         throw new IllegalArgumentException("Expected " + NUM_FEATURES + " features, got " + features.length);
+      // farthest first, so the head is the one to drop
+      PriorityQueue<Neighbor<T>> found = new PriorityQueue<Neighbor<T>>(Math.max(k, 1),
+         new Comparator<Neighbor<T>>() {
+            public int compare(Neighbor<T> a, Neighbor<T> b) {return Double.compare(b.distance, a.distance);}
+         });
+      if(root != null && k > 0)
+         search(root, features, k, found);
+      List<Neighbor<T>> result = new ArrayList<Neighbor<T>>(found);
+      Collections.sort(result, new Comparator<Neighbor<T>>() {
+         public int compare(Neighbor<T> a, Neighbor<T> b) {return Double.compare(a.distance, b.distance);}
+      });
+      return result;
+   }
+
+   /** Get the features of the first part of the data that has sections, or null if none
+    *  does. The part is assembled if it hasn't been. */
+   public static double[] getFeatures(WMLData data) {
+      UnitView view = new UnitView(data, Units.MM);
+      for(Part part: data.parts) {
+         if(part.sections.isEmpty()) continue;
+         return getFeatures(view.view(part.getAssembledSection().section));
+      }
+      return null;
+   }
+
+   /** Get the features of an assembled section. The view must be in mm, so
+    *  that instruments measured in different units compare alike. */
+   public static double[] getFeatures(SectionView view) {
+      ProfileCurve bore = new ProfileCurve(view.getBoreXValues(), view.getBoreYValues());
+      if(bore.getNumPoints() < 2 || !(bore.getXMax() > bore.getXMin()))
+         throw new IllegalArgumentException("Bore has no length");
+      double start = bore.getXMin(), length = bore.getXMax() - start;
+      double[] features = new double[NUM_FEATURES];
+      // along the length, so instruments in different keys compare by shape
+      new BoreResampler(BoreResampler.uniformGrid(start, bore.getXMax(), NUM_BORE_POINTS))
+         .resample(bore, features, 0);
+      features[NUM_BORE_POINTS] = LENGTH_WEIGHT * length;
+      // tone holes from the top, measured from the blow hole if there is one; missing
+      // holes are left 0
+      double top = view.hasBlowHole() ? view.getBlowHoleXCoord() : start;
+      int numHoles = view.getNumToneHoles();
+      Integer[] order = new Integer[numHoles];
+      for(int i = 0; i < numHoles; i++)
+         order[i] = i;
+      final double[] xs = view.getToneHoleXCoords();
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {return Double.compare(xs[a], xs[b]);}
+      });
+      double[] diams = view.getToneHoleDiams();
+      int offset = NUM_BORE_POINTS + 1;
+      for(int i = 0; i < Math.min(numHoles, MAX_TONE_HOLES); i++) {
+         features[offset + 2 * i] = POSITION_SCALE * (xs[order[i]] - top) / length;
+         features[offset + 2 * i + 1] = diams[order[i]];
+      }
+      return features;
+   }
+
+   public static double distance(double[] a, double[] b) {
+      double sum = 0.;
+      for(int i = 0; i < a.length; i++) {
+         double d = a[i] - b[i];
+         sum += d * d;
+      }
+      return Math.sqrt(sum);
+   }
+
+   private Node<T> insert(Node<T> node, Entry<T> entry) {
+      ++node.size;
+      if(node.entries != null) {
+         node.entries.add(entry);
+         return node.entries.size() > LEAF_SIZE ? build(node.entries) : node;
+      }
+      if(distance(node.vantage.features, entry.features) <= node.radius)
+         node.inside = insert(node.inside, entry);
+      else
+         node.outside = insert(node.outside, entry);
+      int larger = Math.max(node.inside.size, node.outside.size);
+      if(larger > MAX_IMBALANCE * node.size + LEAF_SIZE) {
+         List<Entry<T>> entries = new ArrayList<Entry<T>>(node.size);
+         collect(node, entries);
+         return build(entries);
+      }
+      return node;
+   }
+
+   private static <T> void collect(Node<T> node, List<Entry<T>> entries) {
+      if(node.entries != null) {
+         entries.addAll(node.entries);
+         return;
+      }
+      entries.add(node.vantage);
+      collect(node.inside, entries);
+      collect(node.outside, entries);
+   }
+
+   // Build a balanced subtree: a random vantage point, with the nearer half of the rest
+   // inside. Entries that can't be split (e.g. all the same) stay in one leaf.
+   private Node<T> build(List<Entry<T>> entries) {
+      Node<T> node = new Node<T>();
+      node.size = entries.size();
+      if(entries.size() <= LEAF_SIZE) {
+         node.entries = new ArrayList<Entry<T>>(entries);
+         return node;
+      }
+      Entry<T> vantage = entries.get(random.nextInt(entries.size()));
+      List<Entry<T>> rest = new ArrayList<Entry<T>>(entries.size() - 1);
+      for(Entry<T> entry: entries) {
+         if(entry != vantage) rest.add(entry);
+      }
+      double[] distances = new double[rest.size()];
+      for(int i = 0; i < distances.length; i++)
+         distances[i] = distance(vantage.features, rest.get(i).features);
+      double[] sorted = distances.clone();
+      Arrays.sort(sorted);
+      double radius = sorted[(sorted.length - 1) / 2];
+      List<Entry<T>> inside = new ArrayList<Entry<T>>(), outside = new ArrayList<Entry<T>>();
+      for(int i = 0; i < distances.length; i++)
+         (distances[i] <= radius ? inside : outside).add(rest.get(i));
+      if(outside.isEmpty()) {
+         node.entries = new ArrayList<Entry<T>>(entries);
+         return node;
+      }
+      node.vantage = vantage;
+      node.radius = radius;
+      node.inside = build(inside);
+      node.outside = build(outside);
+      return node;
+   }
+
+   private static <T> void consider(Entry<T> entry, double distance, int k,
+      PriorityQueue<Neighbor<T>> found) {
+      if(found.size() < k)
+         found.add(new Neighbor<T>(entry.item, distance));
+      else if(distance < found.peek().distance) {
+         found.poll();
+         found.add(new Neighbor<T>(entry.item, distance));
+      }
+   }
+
+   // the distance within which a nearer neighbour could still be found
+   private static <T> double bound(int k, PriorityQueue<Neighbor<T>> found) {
+      return found.size() < k ? Double.POSITIVE_INFINITY : found.peek().distance;
+   }
+
+   private static <T> void search(Node<T> node, double[] features, int k,
+      PriorityQueue<Neighbor<T>> found) {
+      if(node.entries != null) {
+         for(Entry<T> entry: node.entries)
+            consider(entry, distance(features, entry.features), k, found);
+         return;
+      }
+      double d = distance(features, node.vantage.features);
+      consider(node.vantage, d, k, found);
+      // the triangle inequality rules out the far side unless the query's ball crosses
+      // the radius
+      if(d <= node.radius) {
+         search(node.inside, features, k, found);
+         if(d + bound(k, found) > node.radius)
+            search(node.outside, features, k, found);
+      }
+      else {
+         search(node.outside, features, k, found);
+         if(d - bound(k, found) <= node.radius)
+            search(node.inside, features, k, found);
+      }
+   }
+}
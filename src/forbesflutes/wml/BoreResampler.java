@@ -0,0 +1,115 @@
+package forbesflutes.wml;
+
+import java.util.List;
+
+/** Resamples profile curves (e.g. the assembled bores of several instruments) onto one
+ *  grid of x values, so they can be compared point by point. The values are those of
+ *  ProfileCurve.interpolateY, to within rounding.
+ *
+ *  Rather than searching for each grid point's segment, each curve is walked once
+ *  alongside the grid: the grid points within a segment are a contiguous run, and the
+ *  segment is a straight line, so the run is filled by a loop of the form
+ *  out[j] = c0 + c1 * grid[j], with no branches or lookups, which the JIT compiles to
+ *  vector instructions. */
+public class BoreResampler {
+   private final double[] grid;
+
+   /** Resample onto the given x values, which must be increasing. The array is used, not
+    *  copied. */
+   public BoreResampler(double[] grid) {
+      for(int j = 1; j < grid.length; j++) {
+         if(!(grid[j] > grid[j - 1]))
+            throw new IllegalArgumentException("Grid is not increasing at index " + j);
+      }
+      this.grid = grid;
+   }
+
+   /** Make n equally spaced x values from min to max. */
+   public static double[] uniformGrid(double min, double max, int n) {
+      double[] grid = new double[n];
+      double step = n > 1 ? (max - min) / (n - 1) : 0.;
+      for(int j = 0; j < n; j++)
+         grid[j] = min + j * step;
+      if(n > 1) grid[n - 1] = max;
+      return grid;
+   }
+
+   /** Make a grid spanning the x range of all the curves, with points about step apart. */
+   public static double[] uniformGrid(List<ProfileCurve> curves, double step) {
+      double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+      for(ProfileCurve curve: curves) {
+         if(curve.getNumPoints() == 0) continue;
+         min = Math.min(min, curve.getXMin());
+         max = Math.max(max, curve.getXMax());
+      }
+      if(min > max) return new double[0];
+      return uniformGrid(min, max, 1 + (int) Math.ceil((max - min) / step));
+   }
+
+   public double[] getGrid() {return grid;}
+
+   public int getNumPoints() {return grid.length;}
+
+   /** Resample a curve into a new array. */
+   public double[] resample(ProfileCurve curve) {
+      double[] out = new double[grid.length];
+      resample(curve, out, 0);
+      return out;
+   }
+
+   /** Resample a curve into out, from index offset on. */
+   public void resample(ProfileCurve curve, double[] out, int offset) {
+      if(out.length - offset < grid.length)
+         throw new IllegalArgumentException("Output has room for " + (out.length - offset)
+            + " values; grid has " + grid.length);
+      int numPoints = curve.getNumPoints();
+      if(numPoints < 2 || !curve.isSorted()) {
+         // a single value, or the segments aren't in order: search for each point
+         for(int j = 0; j < grid.length; j++)
+            out[offset + j] = curve.interpolateY(grid[j]);
+         return;
+      }
+      int j = 0;
+      // before the curve
+      double firstX = curve.getX(0), firstY = curve.getY(0);
+      while(j < grid.length && grid[j] < firstX)
+         out[offset + j++] = firstY;
+      for(int i = 0; i < numPoints - 1 && j < grid.length; i++) {
+         double x0 = curve.getX(i), x1 = curve.getX(i + 1);
+         if(x1 == x0) continue;  // a step; points at it take the value after
+         int end = j;
+         while(end < grid.length && grid[end] < x1)
+            ++end;
+         double y0 = curve.getY(i);
+         double slope = (curve.getY(i + 1) - y0) / (x1 - x0);
+         fillLine(out, offset, j, end, y0 - slope * x0, slope);
+         j = end;
+      }
+      // after the curve
+      double lastY = curve.getY(numPoints - 1);
+      for(; j < grid.length; j++)
+         out[offset + j] = lastY;
+   }
+
+   /** Resample each curve into the matching row of out. */
+   public void resampleAll(List<ProfileCurve> curves, double[][] out) {
+      if(out.length < curves.size())
+         throw new IllegalArgumentException("Output has " + out.length + " rows; there are "
+            + curves.size() + " curves");
+      for(int c = 0; c < curves.size(); c++)
+         resample(curves.get(c), out[c], 0);
+   }
+
+   /** Resample each curve into a new row. */
+   public double[][] resampleAll(List<ProfileCurve> curves) {
+      double[][] out = new double[curves.size()][grid.length];
+      resampleAll(curves, out);
+      return out;
+   }
+
+   // out[offset + j] = c0 + c1 * grid[j] for j from start to end
+   private void fillLine(double[] out, int offset, int start, int end, double c0, double c1) {
+      for(int j = start; j < end; j++)
+         out[offset + j] = c0 + c1 * grid[j];
+   }
+}
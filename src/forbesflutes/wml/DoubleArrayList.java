@@ -0,0 +1,76 @@
+package forbesflutes.wml;
+
+import java.util.Arrays;
+
+/** A growable list of doubles, stored in a primitive array so nothing is boxed. clear()
+ *  keeps the array, so one list can be reused for many profiles; toArray() copies out just
+ *  the values. */
+public class DoubleArrayList {
+   private double[] values;
+   private int size = 0;
+
+   public DoubleArrayList() {
+      this(16);
+   }
+
+   public DoubleArrayList(int capacity) {
+      values = new double[capacity];
+   }
+
+   public int size() {return size;}
+
+   public boolean isEmpty() {return size == 0;}
+
+   public double get(int i) {checkIndex(i); return values[i];}
+
+   public void set(int i, double value) {checkIndex(i); values[i] = value;}
+
+   public void add(double value) {
+      if(size == values.length)
+         grow(size + 1);
+      values[size++] = value;
+   }
+
+   /** Add all the given values. */
+   public void addAll(double[] newValues) {
+      grow(size + newValues.length);
+      System.arraycopy(newValues, 0, values, size, newValues.length);
+      size += newValues.length;
+   }
+
+   /** Add all the given values, plus offset. */
+   public void addAll(double[] newValues, double offset) {
+      grow(size + newValues.length);
+      for(int i = 0; i < newValues.length; i++)
+         values[size + i] = newValues[i] + offset;
+      size += newValues.length;
+   }
+
+   /** Remove all the values, keeping the capacity for reuse. */
+   public void clear() {size = 0;}
+
+   /** Remove the values from index newSize on, keeping the capacity for reuse. */
+   public void truncate(int newSize) {
+      if(newSize < 0 || newSize > size)
+         throw new IndexOutOfBoundsException("new size " + newSize + ", size " + size);
+      size = newSize;
+   }
+
+   /** Get a copy of the values, exactly size() long. */
+   public double[] toArray() {return Arrays.copyOf(values, size);}
+
+   @Override
+   public String toString() {
+      return Arrays.toString(toArray());
+   }
+
+   private void grow(int capacity) {
+      if(capacity > values.length)
+         values = Arrays.copyOf(values, Math.max(capacity, 2 * values.length));
+   }
+
+   private void checkIndex(int i) {
+      if(i < 0 || i >= size)
+         throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+   }
+}
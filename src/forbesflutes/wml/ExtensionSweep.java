@@ -0,0 +1,217 @@
+package forbesflutes.wml;
+
+import forbesflutes.wml.WMLData.AssembledSectionInfo;
+import forbesflutes.wml.WMLData.AssemblyInfo;
+import forbesflutes.wml.WMLData.Part;
+import forbesflutes.wml.WMLData.Section;
+
+/** A part assembled with a range of extensions for one or more of its joints, e.g. to see
+ *  the bore at each position of a tuning slide. Pulling a joint out adds a straight segment
+ *  of the tenon diameter at the joint and moves everything below it down, and nothing
+ *  else changes. So the part is assembled only once, with a zero-length extension at each
+ *  swept joint, and each step is a view of that one assembly: points below a swept joint
+ *  have the joint's extension added to their x coordinate as they are read, and the
+ *  diameters are shared by every step.
+ *
+ *  A step has the same points as Part.createAssembledSection with the same extensions
+ *  (to within rounding, since the extensions are added in a different order), except
+ *  that a swept joint pulled out by 0 still has its two (coincident) extension points, so
+ *  that every step has the same number of points. */
+public class ExtensionSweep {
+   private final int[] jointIndices;
+   private final double[][] extensions;  // [step][swept joint]
+   private final AssembledSectionInfo base;
+   // for each swept joint, the first bore/body point and tone hole moved by its extension
+   private final int[] boreShiftStarts;
+   private final int[] bodyShiftStarts;
+   private final int[] toneHoleShiftStarts;
+
+   /** Sweep the joints below the sections at jointIndices (in increasing order) through the
+    *  given extensions: extensions[step][i] is the extension of joint jointIndices[i] at
+    *  that step. info (nullable) chooses alternate sections and the extensions of the other
+    *  joints, as for Part.createAssembledSection. */
+   public ExtensionSweep(Part part, AssemblyInfo info, int[] jointIndices, double[][] extensions) {
+      // copied before they're checked, so a caller changing its arrays can't affect the sweep
+      this.jointIndices = jointIndices.clone();
+      int numSections = part.sections.size();
+      for(int i = 0; i < jointIndices.length; i++) {
+         int index = this.jointIndices[i];
+         if(index < 0 || index >= numSections || part.sections.get(index).bottomJoint == null)
+            throw new IllegalArgumentException("No joint below section " + index);
+         if(i > 0 && index <= this.jointIndices[i - 1])
+            throw new IllegalArgumentException("Joint indices not increasing: " + index);
+      }
+      this.extensions = new double[extensions.length][];
+      for(int step = 0; step < extensions.length; step++)
+         this.extensions[step] = extensions[step].clone();
+      for(double[] stepExtensions: this.extensions) {
+         if(stepExtensions.length != jointIndices.length)
+            throw new IllegalArgumentException("Expected " + jointIndices.length
+               + " extensions per step, got " + stepExtensions.length);
+         for(double extension: stepExtensions) {
+            if(!(extension >= 0.))
+               throw new IllegalArgumentException("Bad extension: " + extension);
+         }
+      }
+      boreShiftStarts = new int[jointIndices.length];
+      bodyShiftStarts = new int[jointIndices.length];
+      toneHoleShiftStarts = new int[jointIndices.length];
+
+      SectionAssembler assembler = new SectionAssembler();
+      double[] jointExtensions = info == null ? null : info.jointExtensions;
+      int swept = 0;
+      for(int i = 0; i < numSections; i++) {
+         Section section = part.sections.get(i);
+         String altName = info == null ? null : info.getAltSectionName(i);
+         if(altName != null)
+            section = SectionAssembler.findAltSection(section, altName);
+         if(swept < jointIndices.length && this.jointIndices[swept] == i) {
+            assembler.addSection(section, section.bottomJoint, 0., true);
+            // the end of the extension and everything after it moves
+            boreShiftStarts[swept] = assembler.getNumBorePoints() - 1;
+            bodyShiftStarts[swept] = assembler.getNumBodyPoints() - 1;
+            toneHoleShiftStarts[swept] = assembler.getNumToneHoles();
+            ++swept;
+         }
+         else {
+            assembler.addSection(section, section.bottomJoint,
+               SectionAssembler.getExtension(section, i, jointExtensions));
+         }
+      }
+      base = assembler.finish();
+   }
+
+   /** Sweep one joint from minExtension to maxExtension in numSteps equal steps (numSteps
+    *  must be at least 2). The other joints have their own extensions. */
+   public static ExtensionSweep ofRange(Part part, int jointIndex, double minExtension,
+      double maxExtension, int numSteps) {
+      if(numSteps < 2)
+         throw new IllegalArgumentException("Need at least 2 steps, got " + numSteps);
+      double[][] extensions = new double[numSteps][];
+      for(int i = 0; i < numSteps; i++)
+         extensions[i] = new double[] {minExtension + (maxExtension - minExtension) * i / (numSteps - 1)};
+      return new ExtensionSweep(part, null, new int[] {jointIndex}, extensions);
+   }
+
+   public int getNumSteps() {return extensions.length;}
+
+   /** Get the indices of the sections whose bottom joints are swept. */
+   public int[] getJointIndices() {return jointIndices.clone();}
+
+   /** Get the assembly all the steps are views of: every swept joint at 0 extension. */
+   public AssembledSectionInfo getBase() {return base;}
+
+   public Step getStep(int i) {return new Step(extensions[i]);}
+
+   /** One step of the sweep: the assembled profiles with that step's extensions. Reads
+    *  through to the shared assembly; toAssembledSection makes a separate copy. */
+   public class Step {
+      private final double[] stepExtensions;
+
+      private Step(double[] stepExtensions) {
+         this.stepExtensions = stepExtensions;
+      }
+
+      /** Get the extension of the i'th swept joint. */
+      public double getExtension(int i) {return stepExtensions[i];}
+
+      public double getLength() {
+         double length = base.section.length;
+         for(double extension: stepExtensions)
+            length += extension;
+         return length;
+      }
+
+      public int getNumBorePoints() {return base.section.boreCurve.getNumPoints();}
+
+      public double getBoreX(int i) {
+         return base.section.boreCurve.getX(i) + offset(boreShiftStarts, i);
+      }
+
+      public double getBoreY(int i) {return base.section.boreCurve.getY(i);}
+
+      public double[] getBoreXValues() {
+         return shift(base.section.boreCurve.getXValues(), boreShiftStarts);
+      }
+
+      public double[] getBoreYValues() {return base.section.boreCurve.getYValues();}
+
+      public int getNumBodyPoints() {return base.section.bodyCurve.getNumPoints();}
+
+      public double getBodyX(int i) {
+         return base.section.bodyCurve.getX(i) + offset(bodyShiftStarts, i);
+      }
+
+      public double getBodyY(int i) {return base.section.bodyCurve.getY(i);}
+
+      public double[] getBodyXValues() {
+         return shift(base.section.bodyCurve.getXValues(), bodyShiftStarts);
+      }
+
+      public double[] getBodyYValues() {return base.section.bodyCurve.getYValues();}
+
+      public int getNumToneHoles() {return base.section.toneHoles.size();}
+
+      public double getToneHoleXCoord(int i) {
+         return base.section.toneHoles.getXCoord(i) + offset(toneHoleShiftStarts, i);
+      }
+
+      public double[] getToneHoleXCoords() {
+         return shift(base.section.toneHoles.getXCoords(), toneHoleShiftStarts);
+      }
+
+      /** Get the bore diameter at x, as ProfileCurve.interpolateY does for the step's bore.
+       *  The x is moved back above each swept joint it is below, so the shared curve's
+       *  search is used; x within an extension gets the tenon diameter. */
+      public double interpolateBoreY(double x) {
+         ProfileCurve boreCurve = base.section.boreCurve;
+         double offset = 0.;
+         for(int j = 0; j < stepExtensions.length; j++) {
+            int start = boreShiftStarts[j];
+            // the extension runs from point start - 1 to point start
+            double extensionStart = boreCurve.getX(start - 1) + offset;
+            if(x < extensionStart) break;
+            if(x <= extensionStart + stepExtensions[j]) return boreCurve.getY(start);
+            offset += stepExtensions[j];
+         }
+         return boreCurve.interpolateY(x - offset);
+      }
+
+      /** Make a separate assembled section for this step, e.g. to chart or export it. */
+      public AssembledSectionInfo toAssembledSection() {
+         Section section = base.section;
+         Section assSection = new Section();
+         assSection.name = section.name;
+         assSection.boreCurve = new ProfileCurve(getBoreXValues(), getBoreYValues());
+         assSection.bodyCurve = new ProfileCurve(getBodyXValues(), getBodyYValues());
+         assSection.toneHoles = section.toneHoles.copy();
+         double[] toneHoleXCoords = getToneHoleXCoords();
+         for(int i = 0; i < toneHoleXCoords.length; i++)
+            assSection.toneHoles.setXCoord(i, toneHoleXCoords[i]);
+         assSection.length = getLength();
+         assSection.blowHole = section.blowHole;
+         return new AssembledSectionInfo(assSection, base.bodySectionBreakIndices.clone(),
+               base.boreSectionBreakIndices.clone());
+      }
+
+      // the sum of the extensions of the swept joints that point i is below
+      private double offset(int[] shiftStarts, int i) {
+         double offset = 0.;
+         for(int j = 0; j < shiftStarts.length && shiftStarts[j] <= i; j++)
+            offset += stepExtensions[j];
+         return offset;
+      }
+
+      // add offset() to each value, a run of equal offsets at a time
+      private double[] shift(double[] values, int[] shiftStarts) {
+         double offset = 0.;
+         for(int j = 0; j < shiftStarts.length; j++) {
+            offset += stepExtensions[j];
+            int end = j + 1 < shiftStarts.length ? shiftStarts[j + 1] : values.length;
+            for(int i = shiftStarts[j]; i < end; i++)
+               values[i] += offset;
+         }
+         return values;
+      }
+   }
+}
@@ -0,0 +1,451 @@
+package forbesflutes.wml;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import forbesflutes.wml.WMLData.Joint.TenonDirection;
+import forbesflutes.wml.WMLData.Units;
+
+/** An immutable snapshot of WMLData. Nothing in it can change, so "copying" it is free
+ *  (copy() returns the same object) and it can be read from any thread while the editor
+ *  moves on to newer snapshots. The with... methods return a new snapshot that shares
+ *  everything except the path from the root to what changed: e.g. withToneHole makes a
+ *  new tone hole, section, part and root, and shares all other objects. Profiles are
+ *  never copied once made: a unit change shares their arrays and just records a scale. */
+public final class ImmutableWMLData {
+   public final String id;           // nullable
+   public final String name;         // nullable
+   public final String type;         // nullable
+   public final String subType;      // nullable
+   public final String owner;        // nullable
+   public final String maker;        // nullable
+   public final String serial;       // nullable
+   public final String submittedBy;  // nullable
+   public final String measuredBy;   // nullable
+   public final String url;          // nullable
+   public final String comments;     // nullable
+   public final double pitchStandard;
+   public final String keyOf;        // nullable
+   public final Units units;
+   public final String filepath;     // nullable
+   private final Part[] parts;
+
+   private ImmutableWMLData(ImmutableWMLData header, Units units, Part[] parts) {
+      id = header.id;
+      name = header.name;
+      type = header.type;
+      subType = header.subType;
+      owner = header.owner;
+      maker = header.maker;
+      serial = header.serial;
+      submittedBy = header.submittedBy;
+      measuredBy = header.measuredBy;
+      url = header.url;
+      comments = header.comments;
+      pitchStandard = header.pitchStandard;
+      keyOf = header.keyOf;
+      filepath = header.filepath;
+      this.units = units;
+      this.parts = parts;
+   }
+
+   private ImmutableWMLData(WMLData data) {
+      id = data.id;
+      name = data.name;
+      type = data.type;
+      subType = data.subType;
+      owner = data.owner;
+      maker = data.maker;
+      serial = data.serial;
+      submittedBy = data.submittedBy;
+      measuredBy = data.measuredBy;
+      url = data.url;
+      comments = data.comments;
+      pitchStandard = data.pitchStandard;
+      keyOf = data.keyOf;
+      filepath = data.filepath;
+      units = data.units;
+      parts = new Part[data.parts.size()];
+      for(int i = 0; i < parts.length; i++)
+         parts[i] = Part.from(data.parts.get(i));
+   }
+
+   /** Make a snapshot of (mutable) data. */
+   public static ImmutableWMLData from(WMLData data) {
+      return new ImmutableWMLData(data);
+   }
+
+   /** Make a mutable deep copy, for code that works with WMLData. */
+   public WMLData toWMLData() {
+      WMLData data = new WMLData();
+      data.id = id;
+      data.name = name;
+      data.type = type;
+      data.subType = subType;
+      data.owner = owner;
+      data.maker = maker;
+      data.serial = serial;
+      data.submittedBy = submittedBy;
+      data.measuredBy = measuredBy;
+      data.url = url;
+      data.comments = comments;
+      data.pitchStandard = pitchStandard;
+      data.keyOf = keyOf;
+      data.filepath = filepath;
+      data.units = units;
+      for(Part part: parts)
+         data.parts.add(part.toWMLPart());
+      return data;
+   }
+
+   /** Returns this: an immutable object is its own copy. */
+   public ImmutableWMLData copy() {
+      return this;
+   }
+
+   public int getNumParts() {return parts.length;}
+
+   public Part getPart(int i) {return parts[i];}
+
+   public List<Part> getParts() {
+      return Collections.unmodifiableList(Arrays.asList(parts));
+   }
+
+   /** Get the data in other units. The profiles' arrays are shared, not converted. */
+   public ImmutableWMLData withUnits(Units newUnits) {
+      if(units == null || newUnits == units) return this;
+      double factor = WMLData.getConversionFactor(newUnits);
+      Part[] newParts = new Part[parts.length];
+      for(int i = 0; i < parts.length; i++)
+         newParts[i] = parts[i].scaled(factor);
+      return new ImmutableWMLData(this, newUnits, newParts);
+   }
+
+   /** Get the data with part i replaced. */
+   public ImmutableWMLData withPart(int i, Part part) {
+      Part[] newParts = parts.clone();
+      newParts[i] = part;
+      return new ImmutableWMLData(this, units, newParts);
+   }
+
+   /** Get the data with one section replaced. */
+   public ImmutableWMLData withSection(int partIndex, int sectionIndex, Section section) {
+      return withPart(partIndex, parts[partIndex].withSection(sectionIndex, section));
+   }
+
+   /** Get the data with one tone hole replaced (e.g. moved). */
+   public ImmutableWMLData withToneHole(int partIndex, int sectionIndex, int holeIndex,
+      ToneHole toneHole) {
+      Section section = parts[partIndex].getSection(sectionIndex);
+      return withSection(partIndex, sectionIndex, section.withToneHole(holeIndex, toneHole));
+   }
+
+   /** An immutable WMLData.Part. */
+   public static final class Part {
+      public final String name;            // nullable
+      public final String noteRangeStart;  // nullable
+      public final String noteRangeEnd;    // nullable
+      private final Section[] sections;
+
+      private Part(String name, String noteRangeStart, String noteRangeEnd, Section[] sections) {
+         this.name = name;
+         this.noteRangeStart = noteRangeStart;
+         this.noteRangeEnd = noteRangeEnd;
+         this.sections = sections;
+      }
+      
+      /** Make a part with a copy of the given sections. */
+      public static Part of(String name, String noteRangeStart, String noteRangeEnd, Section[] sections) {
+         return new Part(name, noteRangeStart, noteRangeEnd, sections.clone());
+      }
+
+      private static Part from(WMLData.Part part) {
+         Section[] sections = new Section[part.sections.size()];
+         for(int i = 0; i < sections.length; i++)
+            sections[i] = Section.from(part.sections.get(i));
+         return new Part(part.name, part.noteRangeStart, part.noteRangeEnd, sections);
+      }
+
+      private WMLData.Part toWMLPart() {
+         WMLData.Part part = new WMLData.Part();
+         part.name = name;
+         part.noteRangeStart = noteRangeStart;
+         part.noteRangeEnd = noteRangeEnd;
+         for(Section section: sections)
+            part.sections.add(section.toWMLSection());
+         part.endPart();
+         return part;
+      }
+
+      public int getNumSections() {return sections.length;}
+
+      public Section getSection(int i) {return sections[i];}
+
+      public List<Section> getSections() {
+         return Collections.unmodifiableList(Arrays.asList(sections));
+      }
+
+      /** The joint below section i, which is the top joint of the next section. */
+      public Joint getBottomJoint(int i) {
+         return i + 1 < sections.length ? sections[i + 1].topJoint : null;
+      }
+
+      public Part withSection(int i, Section section) {
+         Section[] newSections = sections.clone();
+         newSections[i] = section;
+         return new Part(name, noteRangeStart, noteRangeEnd, newSections);
+      }
+
+      private Part scaled(double factor) {
+         Section[] newSections = new Section[sections.length];
+         for(int i = 0; i < sections.length; i++)
+            newSections[i] = sections[i].scaled(factor);
+         return new Part(name, noteRangeStart, noteRangeEnd, newSections);
+      }
+   }
+
+   /** An immutable WMLData.Section. Its bottom joint is found from its Part. */
+   public static final class Section {
+      public final String name;  // nullable
+      public final double length;
+      public final BlowHole blowHole;  // nullable
+      public final Joint topJoint;     // nullable
+      public final Curve boreCurve;    // nullable
+      public final Curve bodyCurve;    // nullable
+      private final ToneHole[] toneHoles;
+      private final Section[] altSections;  // sections that can replace this one
+
+      private Section(String name, double length, BlowHole blowHole, Joint topJoint,
+         ToneHole[] toneHoles, Curve boreCurve, Curve bodyCurve, Section[] altSections) {
+         this.name = name;
+         this.altSections = altSections;
+         this.length = length;
+         this.blowHole = blowHole;
+         this.topJoint = topJoint;
+         this.toneHoles = toneHoles;
+         this.boreCurve = boreCurve;
+         this.bodyCurve = bodyCurve;
+      }
+      
+      /** Make a section with a copy of the given tone holes. */
+      public static Section of(String name, double length, BlowHole blowHole, Joint topJoint,
+         ToneHole[] toneHoles, Curve boreCurve, Curve bodyCurve) {
+         return new Section(name, length, blowHole, topJoint, toneHoles.clone(), boreCurve, bodyCurve,
+            new Section[0]);
+      }
+
+      private static Section from(WMLData.Section section) {
+         ToneHoleTable table = section.toneHoles;
+         ToneHole[] toneHoles = new ToneHole[table.size()];
+         for(int i = 0; i < toneHoles.length; i++)
+            toneHoles[i] = new ToneHole(table.getXCoord(i), table.getDiam(i), table.getBodyDiam(i),
+               table.getBodyToTop(i), table.getAngle(i));
+         Section[] altSections = new Section[section.altSections.size()];
+         for(int i = 0; i < altSections.length; i++)
+            altSections[i] = from(section.altSections.get(i));
+         WMLData.BlowHole blowHole = section.blowHole;
+         WMLData.Joint joint = section.topJoint;
+         return new Section(section.name, section.length,
+            blowHole == null ? null : new BlowHole(blowHole.xCoord, blowHole.length,
+               blowHole.width, blowHole.bodyDiam, blowHole.corkDist),
+            joint == null ? null : new Joint(joint.tenonDirection, joint.tenonLength,
+               joint.tenonDiam, joint.extension),
+            toneHoles, Curve.from(section.boreCurve), Curve.from(section.bodyCurve),
+            altSections);
+      }
+
+      private WMLData.Section toWMLSection() {
+         WMLData.Section section = new WMLData.Section();
+         section.name = name;
+         section.length = length;
+         if(blowHole != null)
+            section.blowHole = new WMLData.BlowHole(blowHole.xCoord, blowHole.length,
+               blowHole.width, blowHole.bodyDiam, blowHole.corkDist);
+         if(topJoint != null) {
+            section.topJoint = new WMLData.Joint();
+            section.topJoint.tenonDirection = topJoint.tenonDirection;
+            section.topJoint.tenonLength = topJoint.tenonLength;
+            section.topJoint.tenonDiam = topJoint.tenonDiam;
+            section.topJoint.extension = topJoint.extension;
+         }
+         for(ToneHole toneHole: toneHoles)
+            section.toneHoles.add(toneHole.xCoord, toneHole.diam, toneHole.bodyDiam,
+               toneHole.bodyToTop, toneHole.angle);
+         if(boreCurve != null)
+            section.boreCurve = boreCurve.toProfileCurve();
+         if(bodyCurve != null)
+            section.bodyCurve = bodyCurve.toProfileCurve();
+         for(Section altSection: altSections)
+            section.altSections.add(altSection.toWMLSection());
+         return section;
+      }
+
+      public int getNumToneHoles() {return toneHoles.length;}
+
+      public ToneHole getToneHole(int i) {return toneHoles[i];}
+
+      public List<ToneHole> getToneHoles() {
+         return Collections.unmodifiableList(Arrays.asList(toneHoles));
+      }
+
+      public int getNumAltSections() {return altSections.length;}
+
+      public Section getAltSection(int i) {return altSections[i];}
+
+      public Section withToneHole(int i, ToneHole toneHole) {
+         ToneHole[] newToneHoles = toneHoles.clone();
+         newToneHoles[i] = toneHole;
+         return new Section(name, length, blowHole, topJoint, newToneHoles, boreCurve, bodyCurve,
+            altSections);
+      }
+
+      public Section withLength(double newLength) {
+         return new Section(name, newLength, blowHole, topJoint, toneHoles, boreCurve, bodyCurve,
+            altSections);
+      }
+
+      /** Get the section with a copy of the given alternate sections. */
+      public Section withAltSections(Section[] newAltSections) {
+         return new Section(name, length, blowHole, topJoint, toneHoles, boreCurve, bodyCurve,
+            newAltSections.clone());
+      }
+
+      private Section scaled(double factor) {
+         ToneHole[] newToneHoles = new ToneHole[toneHoles.length];
+         for(int i = 0; i < toneHoles.length; i++)
+            newToneHoles[i] = toneHoles[i].scaled(factor);
+         Section[] newAltSections = new Section[altSections.length];
+         for(int i = 0; i < altSections.length; i++)
+            newAltSections[i] = altSections[i].scaled(factor);
+         return new Section(name, length * factor,
+            blowHole == null ? null : blowHole.scaled(factor),
+            topJoint == null ? null : topJoint.scaled(factor), newToneHoles,
+            boreCurve == null ? null : boreCurve.scaled(factor),
+            bodyCurve == null ? null : bodyCurve.scaled(factor), newAltSections);
+      }
+   }
+
+   /** An immutable WMLData.Joint. */
+   public static final class Joint {
+      public final TenonDirection tenonDirection;
+      public final double tenonLength;
+      public final double tenonDiam;
+      public final double extension;
+
+      public Joint(TenonDirection tenonDirection, double tenonLength, double tenonDiam, double extension) {
+         this.tenonDirection = tenonDirection;
+         this.tenonLength = tenonLength;
+         this.tenonDiam = tenonDiam;
+         this.extension = extension;
+      }
+
+      private Joint scaled(double factor) {
+         return new Joint(tenonDirection, tenonLength * factor, tenonDiam * factor, extension * factor);
+      }
+   }
+
+   /** An immutable WMLData.ToneHole. */
+   public static final class ToneHole {
+      public final double xCoord;
+      public final double diam;
+      public final double bodyDiam;
+      public final double bodyToTop;
+      public final double angle;  // degrees; not scaled with the lengths
+
+      public ToneHole(double xCoord, double diam, double bodyDiam, double bodyToTop) {
+         this(xCoord, diam, bodyDiam, bodyToTop, 0.);
+      }
+
+      public ToneHole(double xCoord, double diam, double bodyDiam, double bodyToTop, double angle) {
+         this.xCoord = xCoord;
+         this.diam = diam;
+         this.bodyDiam = bodyDiam;
+         this.bodyToTop = bodyToTop;
+         this.angle = angle;
+      }
+
+      public ToneHole withXCoord(double newXCoord) {
+         return new ToneHole(newXCoord, diam, bodyDiam, bodyToTop, angle);
+      }
+
+      private ToneHole scaled(double factor) {
+         return new ToneHole(xCoord * factor, diam * factor, bodyDiam * factor, bodyToTop * factor,
+            angle);
+      }
+   }
+
+   /** An immutable WMLData.BlowHole. */
+   public static final class BlowHole {
+      public final double xCoord;
+      public final double length;
+      public final double width;
+      public final double bodyDiam;
+      public final double corkDist;
+
+      public BlowHole(double xCoord, double length, double width, double bodyDiam, double corkDist) {
+         this.xCoord = xCoord;
+         this.length = length;
+         this.width = width;
+         this.bodyDiam = bodyDiam;
+         this.corkDist = corkDist;
+      }
+
+      private BlowHole scaled(double factor) {
+         return new BlowHole(xCoord * factor, length * factor, width * factor, bodyDiam * factor,
+            corkDist * factor);
+      }
+   }
+
+   /** An immutable profile. The arrays are never changed once made, so scaled copies
+    *  share them and apply their scale factor as the values are read. */
+   public static final class Curve {
+      private final double[] xValues;
+      private final double[] yValues;
+      private final double scale;
+
+      private Curve(double[] xValues, double[] yValues, double scale) {
+         this.xValues = xValues;
+         this.yValues = yValues;
+         this.scale = scale;
+      }
+
+      /** Make a curve from copies of the given values. */
+      public static Curve of(double[] xValues, double[] yValues) {
+         return new Curve(xValues.clone(), yValues.clone(), 1.);
+      }
+
+      private static Curve from(ProfileCurve curve) {
+         return curve == null ? null : of(curve.getXValues(), curve.getYValues());
+      }
+
+      public int getNumPoints() {return xValues.length;}
+
+      public double getX(int i) {return xValues[i] * scale;}
+
+      public double getY(int i) {return yValues[i] * scale;}
+
+      /** Get a copy of the x values. */
+      public double[] getXValues() {return scaledCopy(xValues);}
+
+      /** Get a copy of the y values. */
+      public double[] getYValues() {return scaledCopy(yValues);}
+
+      /** Make a (mutable) ProfileCurve with copies of the values. */
+      public ProfileCurve toProfileCurve() {
+         return new ProfileCurve(getXValues(), getYValues());
+      }
+
+      private double[] scaledCopy(double[] values) {
+         double[] copy = values.clone();
+         if(scale != 1.)
+            for(int i = 0; i < copy.length; i++)
+               copy[i] *= scale;
+         return copy;
+      }
+
+      private Curve scaled(double factor) {
+         return new Curve(xValues, yValues, scale * factor);
+      }
+   }
+}
@@ -0,0 +1,463 @@
+package forbesflutes.wml;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import forbesflutes.wml.WMLData.AssembledSectionInfo;
+import forbesflutes.wml.WMLData.BlowHole;
+import forbesflutes.wml.WMLData.Section;
+import forbesflutes.wml.WMLData.Units;
+
+/** Computes the input impedance of an assembled part (see Part.createAssembledSection)
+ *  over a grid of frequencies, by the transfer matrix method. The bore is cut into cones
+ *  at its profile points and tone holes, each of which is a 2x2 matrix relating pressure and
+ *  volume flow at its two ends; tone holes are shunt admittances between the cones, open
+ *  or closed according to the fingering, and the open end has the radiation impedance of
+ *  an unflanged pipe. Wall losses are included, as Keefe's approximation for wide tubes.
+ *
+ *  The input is the blow hole for parts that have one (the bore above it, up to the cork,
+ *  is a closed cavity in parallel, and the blow hole is a short tube in series), and the top
+ *  of the bore otherwise. Flutes sound near minima of the input impedance and reed
+ *  instruments near maxima; Spectrum.findResonances picks whichever fits.
+ *
+ *  Everything about the geometry that doesn't depend on frequency is worked out once, by
+ *  the constructor. Frequencies are independent, so compute splits the grid across a
+ *  fork-join pool. At each frequency the matrices of the bore between holes are multiplied
+ *  out once and then used for every fingering. */
+public class ImpedanceCalculator {
+   public static final double DEFAULT_TEMPERATURE = 20.;  // Celsius
+   private static final double LOSS_CONSTANT = 2.96e-5;  // wall loss = LOSS_CONSTANT * sqrt(f) / r per meter
+   private static final double MIN_HOLE_HEIGHT = 1e-4;  // meters
+   private static final int FREQUENCIES_PER_TASK = 16;
+
+   private final double speedOfSound;  // m/s
+   private final double airDensity;    // kg/m^3
+   private final boolean hasBlowHole;
+   // the bore from the input down, as cones. Group g runs from the input (g = 0) or
+   // hole g - 1 to the next hole or the end, and is cones groupStarts[g] to groupStarts[g+1]
+   private final Cones cones;
+   private final int[] groupStarts;
+   private final Cones corkCones;  // from the input up to the cork; flutes only
+   // tone holes in the bore, top first (radius, chimney height, bore radius; meters)
+   private final double[] holeRadii, holeHeights, holeBoreRadii;
+   private final int[] holeIndices;  // of each hole, in the section's tone holes
+   private final int numToneHoles;   // in the section, which fingerings cover
+   private final double endRadius;
+   private final double embouchureArea, embouchureLength;
+
+   /** Cones given by their lengths and end radii, in meters. */
+   private static class Cones {
+      final double[] lengths, radii1, radii2;
+
+      Cones(DoubleArrayList lengths, DoubleArrayList radii1, DoubleArrayList radii2) {
+         this.lengths = lengths.toArray();
+         this.radii1 = radii1.toArray();
+         this.radii2 = radii2.toArray();
+      }
+
+      int size() {return lengths.length;}
+   }
+
+   /** The input impedance of one part over a grid of frequencies, for each of a number of
+    *  fingerings. Impedances are in Pa s / m^3. */
+   public class Spectrum {
+      public final double[] frequencies;
+      public final double[][] real;       // [fingering][frequency]
+      public final double[][] imaginary;  // [fingering][frequency]
+
+      private Spectrum(double[] frequencies, int numFingerings) {
+         this.frequencies = frequencies;
+         real = new double[numFingerings][frequencies.length];
+         imaginary = new double[numFingerings][frequencies.length];
+      }
+
+      public double getMagnitude(int fingering, int i) {
+         return Math.hypot(real[fingering][i], imaginary[fingering][i]);
+      }
+
+      /** Get the frequencies a fingering plays at: the minima of the impedance magnitude
+       *  for a part with a blow hole, otherwise the maxima. Each is refined between grid
+       *  points by fitting a parabola to the magnitude. */
+      public double[] findResonances(int fingering) {
+         int n = frequencies.length;
+         double sign = hasBlowHole ? -1. : 1.;
+         DoubleArrayList resonances = new DoubleArrayList();
+         for(int i = 1; i < n - 1; i++) {
+            double m0 = sign * getMagnitude(fingering, i - 1);
+            double m1 = sign * getMagnitude(fingering, i);
+            double m2 = sign * getMagnitude(fingering, i + 1);
+            if(m1 <= m0 || m1 < m2) continue;
+            double curvature = m0 - 2. * m1 + m2;
+            double shift = curvature == 0. ? 0. : .5 * (m0 - m2) / curvature;
+            double step = shift < 0. ? frequencies[i] - frequencies[i - 1] : frequencies[i + 1] - frequencies[i];
+            resonances.add(frequencies[i] + shift * step);
+         }
+         return resonances.toArray();
+      }
+   }
+
+   /** Set up for the assembled part at the default temperature. */
+   public ImpedanceCalculator(AssembledSectionInfo assembled, Units units) {
+      this(assembled, units, DEFAULT_TEMPERATURE);
+   }
+
+   /** Set up for the assembled part, measured in the given units, for air at the given
+    *  temperature (Celsius). */
+   public ImpedanceCalculator(AssembledSectionInfo assembled, Units units, double temperature) {
+      Section section = assembled.section;
+      ProfileCurve bore = section.boreCurve;
+      if(bore.getNumPoints() < 2)
+         throw new IllegalArgumentException("Bore has fewer than 2 points");
+      double toMeters = units == Units.MM ? .001 : .0254;
+      double kelvin = temperature + 273.15;
+      speedOfSound = 331.3 * Math.sqrt(kelvin / 273.15);
+      airDensity = 101325. / (287.05 * kelvin);
+
+      double boreStart = bore.getX(0);
+      double boreEnd = bore.getXMax();
+      BlowHole blowHole = section.blowHole;
+      hasBlowHole = blowHole != null && blowHole.xCoord > boreStart && blowHole.xCoord < boreEnd;
+      double inputX = hasBlowHole ? blowHole.xCoord : boreStart;
+
+      // tone holes below the input, in order
+      ToneHoleTable toneHoles = section.toneHoles;
+      numToneHoles = toneHoles.size();
+      IntArrayList indices = new IntArrayList();
+      for(int i = 0; i < numToneHoles; i++) {
+         double x = toneHoles.getXCoord(i);
+         if(x > inputX && x < boreEnd) indices.add(i);
+      }
+      holeIndices = indices.toArray();
+      sortByXCoord(holeIndices, toneHoles);
+      int numHoles = holeIndices.length;
+      holeRadii = new double[numHoles];
+      holeHeights = new double[numHoles];
+      holeBoreRadii = new double[numHoles];
+
+      // the bore, cut at each hole
+      DoubleArrayList lengths = new DoubleArrayList();
+      DoubleArrayList radii1 = new DoubleArrayList();
+      DoubleArrayList radii2 = new DoubleArrayList();
+      groupStarts = new int[numHoles + 2];
+      double x = inputX;
+      for(int h = 0; h < numHoles; h++) {
+         int i = holeIndices[h];
+         double holeX = toneHoles.getXCoord(i);
+         addCones(bore, x, holeX, toMeters, lengths, radii1, radii2);
+         groupStarts[h + 1] = lengths.size();
+         double boreDiam = bore.interpolateY(holeX);
+         double bodyDiam = toneHoles.getBodyDiam(i) > 0. ? toneHoles.getBodyDiam(i) :
+            section.bodyCurve.interpolateY(holeX);
+         double height = .5 * (bodyDiam - boreDiam) - toneHoles.getBodyToTop(i);
+         holeRadii[h] = .5 * toneHoles.getDiam(i) * toMeters;
+         holeHeights[h] = Math.max(MIN_HOLE_HEIGHT, height * toMeters);
+         holeBoreRadii[h] = .5 * boreDiam * toMeters;
+         x = holeX;
+      }
+      addCones(bore, x, boreEnd, toMeters, lengths, radii1, radii2);
+      groupStarts[numHoles + 1] = lengths.size();
+      cones = new Cones(lengths, radii1, radii2);
+      endRadius = .5 * bore.getY(bore.getNumPoints() - 1) * toMeters;
+
+      if(hasBlowHole) {
+         // the cavity up to the cork (or the top of the bore, if the cork isn't given),
+         // looking up from the input
+         double corkX = blowHole.corkDist > 0. ? blowHole.getCorkSectionCoord() : boreStart;
+         lengths.clear();
+         radii1.clear();
+         radii2.clear();
+         addCones(bore, Math.max(corkX, boreStart), inputX, toMeters, lengths, radii1, radii2);
+         corkCones = reverse(new Cones(lengths, radii1, radii2));
+         embouchureArea = .25 * Math.PI * blowHole.length * blowHole.width * toMeters * toMeters;
+         double boreDiam = bore.interpolateY(inputX);
+         double bodyDiam = blowHole.bodyDiam > 0. ? blowHole.bodyDiam :
+            section.bodyCurve.interpolateY(inputX);
+         double wall = Math.max(MIN_HOLE_HEIGHT, .5 * (bodyDiam - boreDiam) * toMeters);
+         // end corrections inside and out, as for a flanged hole
+         embouchureLength = wall + 1.7 * Math.sqrt(embouchureArea / Math.PI);
+      }
+      else {
+         corkCones = null;
+         embouchureArea = embouchureLength = 0.;
+      }
+   }
+
+   /** Get the number of tone holes a fingering covers: all of the section's, in its order. */
+   public int getNumToneHoles() {return numToneHoles;}
+
+   /** Make n equally spaced frequencies from min to max. */
+   public static double[] linearFrequencies(double min, double max, int n) {
+      double[] frequencies = new double[n];
+      for(int i = 0; i < n; i++)
+         frequencies[i] = n == 1 ? min : min + (max - min) * i / (n - 1);
+      return frequencies;
+   }
+
+   /** Compute the spectrum on the common fork-join pool. closedHoles has one entry per
+    *  fingering, saying which of the section's tone holes are closed. */
+   public Spectrum compute(double[] frequencies, List<boolean[]> closedHoles) {
+      return compute(frequencies, closedHoles, ForkJoinPool.commonPool());
+   }
+
+   /** As compute, on the given pool. */
+   public Spectrum compute(double[] frequencies, List<boolean[]> closedHoles, ForkJoinPool pool) {
+      boolean[][] fingerings = new boolean[closedHoles.size()][];
+      for(int f = 0; f < fingerings.length; f++) {
+         boolean[] closed = closedHoles.get(f);
+         if(closed.length != numToneHoles)
+            throw new IllegalArgumentException("Fingering " + f + " has " + closed.length
+               + " holes; expected " + numToneHoles);
+         // in the order of the holes in the bore
+         fingerings[f] = new boolean[holeIndices.length];
+         for(int h = 0; h < holeIndices.length; h++)
+            fingerings[f][h] = closed[holeIndices[h]];
+      }
+      Spectrum spectrum = new Spectrum(frequencies, fingerings.length);
+      pool.invoke(new FrequencyTask(spectrum, fingerings, 0, frequencies.length));
+      return spectrum;
+   }
+
+   // computes a range of the frequencies, splitting it in half until it's small
+   private class FrequencyTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private final Spectrum spectrum;
+      private final boolean[][] fingerings;
+      private final int start, end;
+
+      FrequencyTask(Spectrum spectrum, boolean[][] fingerings, int start, int end) {
+         this.spectrum = spectrum;
+         this.fingerings = fingerings;
+         this.start = start;
+         this.end = end;
+      }
+
+      @Override
+      protected void compute() {
+         if(end - start > FREQUENCIES_PER_TASK) {
+            int mid = (start + end) >>> 1;
+            invokeAll(new FrequencyTask(spectrum, fingerings, start, mid),
+               new FrequencyTask(spectrum, fingerings, mid, end));
+            return;
+         }
+         TransferMatrix[] groups = new TransferMatrix[groupStarts.length - 1];
+         for(int i = start; i < end; i++)
+            computeFrequency(spectrum, fingerings, i, groups);
+      }
+   }
+
+   // compute all the fingerings at frequency i, reusing groups for the bore's matrices
+   private void computeFrequency(Spectrum spectrum, boolean[][] fingerings, int i,
+      TransferMatrix[] groups) {
+      double frequency = spectrum.frequencies[i];
+      double omega = 2. * Math.PI * frequency;
+      double k0 = omega / speedOfSound;
+      double sqrtF = Math.sqrt(frequency);
+      for(int g = 0; g < groups.length; g++)
+         groups[g] = multiplyCones(cones, groupStarts[g], groupStarts[g + 1], k0, sqrtF);
+      Complex corkImpedance = null;
+      if(hasBlowHole && corkCones.size() > 0) {
+         // a closed end: no flow, so Z = A / C
+         TransferMatrix cork = multiplyCones(corkCones, 0, corkCones.size(), k0, sqrtF);
+         corkImpedance = cork.a.divide(cork.c);
+      }
+      Complex radiation = radiationImpedance(k0, endRadius);
+      for(int f = 0; f < fingerings.length; f++) {
+         boolean[] closed = fingerings[f];
+         Complex z = radiation;
+         for(int g = groups.length - 1; g >= 0; g--) {
+            z = groups[g].transform(z);
+            if(g > 0) {
+               int h = g - 1;
+               Complex holeImpedance = closed[h] ? closedHoleImpedance(k0, h) : openHoleImpedance(k0, sqrtF, h);
+               z = parallel(z, holeImpedance);
+            }
+         }
+         if(hasBlowHole) {
+            Complex embouchure = new Complex(0., omega * airDensity * embouchureLength / embouchureArea);
+            z = embouchure.plus(corkImpedance == null ? z : parallel(z, corkImpedance));
+         }
+         spectrum.real[f][i] = z.re;
+         spectrum.imaginary[f][i] = z.im;
+      }
+   }
+
+   // multiply out cones start to end; the identity if there are none
+   private TransferMatrix multiplyCones(Cones cones, int start, int end, double k0, double sqrtF) {
+      TransferMatrix product = null;
+      for(int i = start; i < end; i++) {
+         TransferMatrix cone = coneMatrix(cones.lengths[i], cones.radii1[i], cones.radii2[i], k0, sqrtF);
+         product = product == null ? cone : product.times(cone);
+      }
+      return product == null ? TransferMatrix.IDENTITY : product;
+   }
+
+   // The matrix of a cone of length l from radius r1 to r2, for spherical waves measured
+   // from the apex, which is x1 above the top and x2 above the bottom (both negative for
+   // a narrowing cone); a cylinder has plane waves.
+   private TransferMatrix coneMatrix(double l, double r1, double r2, double k0, double sqrtF) {
+      double meanRadius = .5 * (r1 + r2);
+      double alpha = LOSS_CONSTANT * sqrtF / meanRadius;
+      Complex k = new Complex(k0 + alpha, -alpha);
+      Complex kl = k.times(l);
+      Complex sin = kl.sin();
+      Complex cos = kl.cos();
+      double z1 = airDensity * speedOfSound / (Math.PI * r1 * r1);
+      if(Math.abs(r2 - r1) <= 1e-9 * meanRadius) {
+         return new TransferMatrix(cos, sin.timesI().times(z1), sin.timesI().times(1. / z1), cos);
+      }
+      double x1 = r1 * l / (r2 - r1);
+      double x2 = r2 * l / (r2 - r1);
+      Complex sinOverKx1 = sin.divide(k.times(x1));
+      Complex a = cos.times(x2 / x1).minus(sinOverKx1);
+      Complex b = sin.timesI().times(z1 * x1 / x2);
+      // C = j / (k z1 x1) * (-(l / x1) cos + (k x2 + 1 / (k x1)) sin)
+      Complex c = cos.times(-l / x1).plus(k.times(x2).plus(k.times(x1).reciprocal()).times(sin))
+         .divide(k.times(z1 * x1)).timesI();
+      Complex d = cos.plus(sinOverKx1).times(x1 / x2);
+      return new TransferMatrix(a, b, c, d);
+   }
+
+   // an unflanged open end (Levine and Schwinger, low frequency)
+   private Complex radiationImpedance(double k0, double radius) {
+      double z0 = airDensity * speedOfSound / (Math.PI * radius * radius);
+      double ka = k0 * radius;
+      return new Complex(.25 * ka * ka * z0, .6133 * ka * z0);
+   }
+
+   // an open tone hole, as a shunt (Keefe): its chimney plus the end corrections inside
+   // and out, with radiation and wall losses
+   private Complex openHoleImpedance(double k0, double sqrtF, int h) {
+      double b = holeRadii[h];
+      double t = holeHeights[h];
+      double delta = b / holeBoreRadii[h];
+      double zh = airDensity * speedOfSound / (Math.PI * b * b);
+      double tanKt = Math.tan(k0 * t);
+      double effectiveLength = (tanKt / k0 + b * (1.40 - .58 * delta * delta)) / (1. - .61 * k0 * b * tanKt);
+      double resistance = .25 * k0 * k0 * b * b + LOSS_CONSTANT * sqrtF / b * t;
+      return new Complex(resistance * zh, k0 * effectiveLength * zh);
+   }
+
+   // a closed tone hole: the compliance of the air in its chimney
+   private Complex closedHoleImpedance(double k0, int h) {
+      double b = holeRadii[h];
+      double zh = airDensity * speedOfSound / (Math.PI * b * b);
+      return new Complex(0., -zh / Math.tan(k0 * holeHeights[h]));
+   }
+
+   private static Complex parallel(Complex z1, Complex z2) {
+      return z1.times(z2).divide(z1.plus(z2));
+   }
+
+   // add the cones of the bore from x = from to x = to: one for each pair of profile points
+   private static void addCones(ProfileCurve bore, double from, double to, double toMeters,
+      DoubleArrayList lengths, DoubleArrayList radii1, DoubleArrayList radii2) {
+      double prevX = from;
+      double prevRadius = .5 * bore.interpolateY(from);
+      for(int i = 0; i < bore.getNumPoints(); i++) {
+         double x = bore.getX(i);
+         if(x < prevX || x >= to) continue;
+         double radius = .5 * bore.getY(i);
+         if(x > prevX) {
+            lengths.add((x - prevX) * toMeters);
+            radii1.add(prevRadius * toMeters);
+            radii2.add(radius * toMeters);
+         }
+         // (a step in the bore just changes the radius)
+         prevX = x;
+         prevRadius = radius;
+      }
+      if(to > prevX) {
+         lengths.add((to - prevX) * toMeters);
+         radii1.add(prevRadius * toMeters);
+         radii2.add(.5 * bore.interpolateY(to) * toMeters);
+      }
+   }
+
+   // the same cones, from the bottom up
+   private static Cones reverse(Cones cones) {
+      DoubleArrayList lengths = new DoubleArrayList();
+      DoubleArrayList radii1 = new DoubleArrayList();
+      DoubleArrayList radii2 = new DoubleArrayList();
+      for(int i = cones.size() - 1; i >= 0; i--) {
+         lengths.add(cones.lengths[i]);
+         radii1.add(cones.radii2[i]);
+         radii2.add(cones.radii1[i]);
+      }
+      return new Cones(lengths, radii1, radii2);
+   }
+
+   // sort hole indices by position (insertion sort: they're nearly always in order)
+   private static void sortByXCoord(int[] indices, ToneHoleTable toneHoles) {
+      for(int i = 1; i < indices.length; i++) {
+         int index = indices[i];
+         double x = toneHoles.getXCoord(index);
+         int j = i - 1;
+         while(j >= 0 && toneHoles.getXCoord(indices[j]) > x) {
+            indices[j + 1] = indices[j];
+            --j;
+         }
+         indices[j + 1] = index;
+      }
+   }
+
+   /** [p1, U1] = M [p2, U2], from the top of a length of bore to the bottom. */
+   private static final class TransferMatrix {
+      static final TransferMatrix IDENTITY = new TransferMatrix(Complex.ONE, Complex.ZERO,
+         Complex.ZERO, Complex.ONE);
+      final Complex a, b, c, d;
+
+      TransferMatrix(Complex a, Complex b, Complex c, Complex d) {
+         this.a = a;
+         this.b = b;
+         this.c = c;
+         this.d = d;
+      }
+
+      TransferMatrix times(TransferMatrix m) {
+         return new TransferMatrix(a.times(m.a).plus(b.times(m.c)), a.times(m.b).plus(b.times(m.d)),
+            c.times(m.a).plus(d.times(m.c)), c.times(m.b).plus(d.times(m.d)));
+      }
+
+      // the impedance at the top, given the impedance z at the bottom
+      Complex transform(Complex z) {
+         return a.times(z).plus(b).divide(c.times(z).plus(d));
+      }
+   }
+
+   private static final class Complex {
+      static final Complex ZERO = new Complex(0., 0.);
+      static final Complex ONE = new Complex(1., 0.);
+      final double re, im;
+
+      Complex(double re, double im) {
+         this.re = re;
+         this.im = im;
+      }
+
+      Complex plus(Complex z) {return new Complex(re + z.re, im + z.im);}
+
+      Complex minus(Complex z) {return new Complex(re - z.re, im - z.im);}
+
+      Complex times(double s) {return new Complex(re * s, im * s);}
+
+      Complex times(Complex z) {return new Complex(re * z.re - im * z.im, re * z.im + im * z.re);}
+
+      Complex timesI() {return new Complex(-im, re);}
+
+      Complex divide(Complex z) {
+         double denom = z.re * z.re + z.im * z.im;
+         return new Complex((re * z.re + im * z.im) / denom, (im * z.re - re * z.im) / denom);
+      }
+
+      Complex reciprocal() {return ONE.divide(this);}
+
+      Complex sin() {
+         return new Complex(Math.sin(re) * Math.cosh(im), Math.cos(re) * Math.sinh(im));
+      }
+
+      Complex cos() {
+         return new Complex(Math.cos(re) * Math.cosh(im), -Math.sin(re) * Math.sinh(im));
+      }
+   }
+}
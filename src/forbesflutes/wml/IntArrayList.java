@@ -0,0 +1,67 @@
+package forbesflutes.wml;
+
+import java.util.Arrays;
+
+/** A growable list of ints, stored in a primitive array so nothing is boxed. clear()
+ *  keeps the array, so one list can be reused; toArray() copies out just the values. */
+public class IntArrayList {
+   private int[] values;
+   private int size = 0;
+
+   public IntArrayList() {
+      this(16);
+   }
+
+   public IntArrayList(int capacity) {
+      values = new int[capacity];
+   }
+
+   public int size() {return size;}
+
+   public boolean isEmpty() {return size == 0;}
+
+   public int get(int i) {checkIndex(i); return values[i];}
+
+   public void set(int i, int value) {checkIndex(i); values[i] = value;}
+
+   public void add(int value) {
+      if(size == values.length)
+         grow(size + 1);
+      values[size++] = value;
+   }
+
+   /** Add all the given values. */
+   public void addAll(int[] newValues) {
+      grow(size + newValues.length);
+      System.arraycopy(newValues, 0, values, size, newValues.length);
+      size += newValues.length;
+   }
+
+   /** Remove all the values, keeping the capacity for reuse. */
+   public void clear() {size = 0;}
+
+   /** Remove the values from index newSize on, keeping the capacity for reuse. */
+   public void truncate(int newSize) {
+      if(newSize < 0 || newSize > size)
+         throw new IndexOutOfBoundsException("new size " + newSize + ", size " + size);
+      size = newSize;
+   }
+
+   /** Get a copy of the values, exactly size() long. */
+   public int[] toArray() {return Arrays.copyOf(values, size);}
+
+   @Override
+   public String toString() {
+      return Arrays.toString(toArray());
+   }
+
+   private void grow(int capacity) {
+      if(capacity > values.length)
+         values = Arrays.copyOf(values, Math.max(capacity, 2 * values.length));
+   }
+
+   private void checkIndex(int i) {
+      if(i < 0 || i >= size)
+         throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+   }
+}
@@ -0,0 +1,71 @@
+package forbesflutes.wml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** A read-only CharSequence view of a byte buffer, typically a memory-mapped file.
+ *  Characters are decoded one byte at a time, which is exact for the ASCII structure of
+ *  a WML file (tags, numbers, delimiters, quotes and line ends). Multi-byte UTF-8
+ *  characters can only appear inside text values and comments, and their bytes never
+ *  collide with ASCII, so toString() decodes UTF-8 properly for any text value that
+ *  is actually extracted (with toString() on a subSequence, never by charAt). Nothing
+ *  is copied onto the heap until toString() is called. */
+public class MappedCharSequence implements CharSequence {
+   private final ByteBuffer buffer;
+   private final int offset;
+   private final int length;
+
+   public MappedCharSequence(ByteBuffer buffer) {
+      this(buffer, 0, buffer.limit());
+   }
+
+   private MappedCharSequence(ByteBuffer buffer, int offset, int length) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.length = length;
+   }
+
+   /** Map a file read-only. The channel is closed on return; the mapping stays valid
+    *  until the returned sequence is garbage collected. */
+   public static MappedCharSequence map(String filePath) throws IOException {
+      try(FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+         long size = channel.size();
+         if(size > Integer.MAX_VALUE)
+            throw new IOException("File is too large to map: " + filePath);
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         return new MappedCharSequence(buffer);
+      }
+   }
+
+   @Override
+   public int length() {return length;}
+
+   @Override
+   public char charAt(int index) {
+      if(index < 0 || index >= length)
+         throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+      return (char) (buffer.get(offset + index) & 0xff);
+   }
+
+   @Override
+   public CharSequence subSequence(int start, int end) {
+      if(start < 0 || end > length || start > end)
+         throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+      return new MappedCharSequence(buffer, offset + start, end - start);
+   }
+
+   /** Decode the bytes as UTF-8. This is the only place bytes are copied onto the heap. */
+   @Override
+   public String toString() {
+      byte[] bytes = new byte[length];
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset);
+      view.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
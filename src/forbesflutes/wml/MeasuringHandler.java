@@ -0,0 +1,138 @@
+package forbesflutes.wml;
+
+import forbesflutes.wml.ParseMetricsListener.ParseMetrics;
+import forbesflutes.wml.WMLData.Joint.TenonDirection;
+import forbesflutes.wml.WMLData.Units;
+
+/** A WMLHandler that passes everything on to another one, adding the time spent in it to
+ *  ParseMetrics.buildNanos and counting profile points. Used by WMLParser while measuring. */
+class MeasuringHandler implements WMLHandler {
+   private final WMLHandler handler;
+   private final ParseMetrics metrics;
+
+   MeasuringHandler(WMLHandler handler, ParseMetrics metrics) {
+      this.handler = handler;
+      this.metrics = metrics;
+   }
+
+   @Override
+   public void startDocument() {
+      long start = System.nanoTime();
+      handler.startDocument();
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void endDocument() {
+      long start = System.nanoTime();
+      handler.endDocument();
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public boolean wantsMore() {
+      return handler.wantsMore();
+   }
+
+   @Override
+   public void onHeader(String key, String value) {
+      long start = System.nanoTime();
+      handler.onHeader(key, value);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onUnits(Units units) {
+      long start = System.nanoTime();
+      handler.onUnits(units);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onPitchStandard(double pitchStandard) {
+      long start = System.nanoTime();
+      handler.onPitchStandard(pitchStandard);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onNoteRange(String startNote, String endNote) {
+      long start = System.nanoTime();
+      handler.onNoteRange(startNote, endNote);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onPart(String name) {
+      long start = System.nanoTime();
+      handler.onPart(name);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onSection(String name, double length) {
+      long start = System.nanoTime();
+      handler.onSection(name, length);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onAltSection(String name, double length) {
+      long start = System.nanoTime();
+      handler.onAltSection(name, length);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onJoint(TenonDirection tenonDirection, double tenonLength, double tenonDiam,
+      double extension) {
+      long start = System.nanoTime();
+      handler.onJoint(tenonDirection, tenonLength, tenonDiam, extension);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onToneHole(double xCoord, double diam, double bodyDiam, double bodyToTop,
+      double angle) {
+      long start = System.nanoTime();
+      handler.onToneHole(xCoord, diam, bodyDiam, bodyToTop, angle);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onBlowHole(double xCoord, double length, double width, double bodyDiam,
+      double corkDist) {
+      long start = System.nanoTime();
+      handler.onBlowHole(xCoord, length, width, bodyDiam, corkDist);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onProfileStart(ProfileKind kind) {
+      long start = System.nanoTime();
+      handler.onProfileStart(kind);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onProfilePoint(ProfileKind kind, double xCoord, double diam) {
+      ++metrics.profilePointCount;
+      long start = System.nanoTime();
+      handler.onProfilePoint(kind, xCoord, diam);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onProfileEnd(ProfileKind kind) {
+      long start = System.nanoTime();
+      handler.onProfileEnd(kind);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+
+   @Override
+   public void onError(int lineNum, int column, WMLDiagnostics.Code code, String arg) {
+      long start = System.nanoTime();
+      handler.onError(lineNum, column, code, arg);
+      metrics.buildNanos += System.nanoTime() - start;
+   }
+}
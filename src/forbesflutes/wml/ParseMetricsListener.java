@@ -0,0 +1,65 @@
+package forbesflutes.wml;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Receives measurements of each full parse done by a WMLParser, e.g. to log which files
+ *  are slow to parse. Set one with WMLParser.setMetricsListener, or for all parsers
+ *  (including the static parseText methods) with WMLParser.setDefaultMetricsListener.
+ *  Nothing is measured while the listener is NONE, which is the default. */
+public interface ParseMetricsListener {
+   /** The listener that ignores everything; parsers don't measure anything when using it. */
+   public static final ParseMetricsListener NONE = new ParseMetricsListener() {};
+
+   /** Called on the parsing thread at the end of each parse. */
+   default void parseCompleted(ParseMetrics metrics) {}
+
+   /** The measurements of one parse. Times are wall-clock nanoseconds. */
+   public static class ParseMetrics {
+      public String filepath;        // nullable; null for in-memory text
+      public long readNanos;         // mapping the file, if parsing a file
+      public long tokenizeNanos;     // finding lines and tokenizing them
+      public long buildNanos;        // in the handler (e.g. building WMLData)
+      public long validateNanos;     // checking records, less the time in the handler
+      public long totalNanos;
+      public int lineCount;
+      public int profilePointCount;
+      public int errorCount;
+      public long bytesAllocated = -1;  // on the parsing thread; -1 if the JVM can't measure it
+
+      private long startNanos;
+      private long startBytes;
+
+      /** Start the clocks. */
+      void start() {
+         startNanos = System.nanoTime();
+         startBytes = getAllocatedBytes();
+      }
+
+      /** Stop the clocks, and compute the totals. The total includes readNanos. */
+      void finish() {
+         totalNanos = System.nanoTime() - startNanos + readNanos;
+         long endBytes = getAllocatedBytes();
+         bytesAllocated = startBytes < 0 || endBytes < 0 ? -1 : endBytes - startBytes;
+      }
+
+      /** Get the bytes allocated so far by the current thread, or -1 if that isn't available. */
+      private static long getAllocatedBytes() {
+         ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+         if(!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+         com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+         if(!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled())
+            return -1;
+         return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%s: %d lines, %d profile points, %d errors; %.3f ms total "
+            + "(read %.3f, tokenize %.3f, build %.3f, validate %.3f); %d bytes allocated",
+            filepath == null ? "(text)" : filepath, lineCount, profilePointCount, errorCount,
+            totalNanos * 1e-6, readNanos * 1e-6, tokenizeNanos * 1e-6, buildNanos * 1e-6,
+            validateNanos * 1e-6, bytesAllocated);
+      }
+   }
+}
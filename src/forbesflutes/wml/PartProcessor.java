@@ -0,0 +1,107 @@
+package forbesflutes.wml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import forbesflutes.wml.WMLData.AssembledSectionInfo;
+import forbesflutes.wml.WMLData.Part;
+
+/** Runs work on the parts of instruments (e.g. the chanter and drones of a set of pipes)
+ *  concurrently on a shared executor, and returns the results in order for the caller to
+ *  merge. Parts share no data, so a task may read and assemble its own part (e.g. with
+ *  Part.getAssembledSection) while other tasks do the same to theirs; it mustn't touch
+ *  other parts or change its own. Called from one of the executor's own threads, the
+ *  work is done on that thread, so tasks can't deadlock waiting for each other. */
+public final class PartProcessor {
+   private static final ThreadLocal<Boolean> isWorker = new ThreadLocal<Boolean>();
+   private static final ExecutorService executor = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+               public void run() {
+                  isWorker.set(Boolean.TRUE);
+                  runnable.run();
+               }
+            }, "wml-parts-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+
+   /** Work to do on one item (a part, or something holding one). */
+   public interface Task<T, R> {
+      R run(T item);
+   }
+
+   private PartProcessor() {}
+
+   /** The executor the work is done on, shared by everything that uses this class. */
+   public static ExecutorService getExecutor() {
+      return executor;
+   }
+
+   /** Run the task on each item concurrently, returning the results in the items' order.
+    *  An exception thrown by a task is rethrown here (the first one, in item order). */
+   public static <T, R> List<R> map(List<T> items, final Task<T, R> task) {
+      List<R> results = new ArrayList<R>(items.size());
+      if(items.size() <= 1 || isWorker.get() != null) {
+         for(T item: items)
+            results.add(task.run(item));
+         return results;
+      }
+      List<Future<R>> futures = new ArrayList<Future<R>>(items.size());
+      for(final T item: items.subList(1, items.size())) {
+         futures.add(executor.submit(new Callable<R>() {
+            public R call() {
+               return task.run(item);
+            }
+         }));
+      }
+      // do the first one here rather than wait
+      RuntimeException firstException = null;
+      try {
+         results.add(task.run(items.get(0)));
+      } catch(RuntimeException e) {
+         firstException = e;
+      }
+      for(Future<R> future: futures) {
+         try {
+            results.add(future.get());
+         } catch(ExecutionException e) {
+            if(firstException == null) firstException = asRuntimeException(e.getCause());
+         } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for(Future<R> other: futures)
+               other.cancel(true);
+            throw new IllegalStateException("Interrupted waiting for parts", e);
+         }
+      }
+      if(firstException != null) throw firstException;
+      return results;
+   }
+
+   /** Assemble all the parts of the data concurrently, returning their assembled sections
+    *  (see Part.getAssembledSection) in part order. */
+   public static List<AssembledSectionInfo> assembleParts(WMLData data) {
+      return map(data.parts, new Task<Part, AssembledSectionInfo>() {
+         public AssembledSectionInfo run(Part part) {
+            return part.getAssembledSection();
+         }
+      });
+   }
+
+   private static RuntimeException asRuntimeException(Throwable t) {
+      if(t instanceof RuntimeException) return (RuntimeException) t;
+      if(t instanceof Error) throw (Error) t;
+      return new IllegalStateException(t);
+   }
+}
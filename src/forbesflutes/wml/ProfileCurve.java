@@ -0,0 +1,291 @@
+package forbesflutes.wml;
+
+import java.util.Arrays;
+
+/** A bore or body profile: diameters (y) at points along the section (x), joined by
+ *  straight lines. Points are normally in x order, which lets interpolateY find a point's
+ *  segment by binary search; unordered curves still work, by a linear search. The x and y
+ *  ranges and the integrals used by getArea and getVolume are computed when first needed
+ *  and kept until the curve is scaled. */
+public class ProfileCurve {
+   private double[] xValues;
+   private double[] yValues;
+
+   // Points may step back by this much (relative to x) and still count as in order: joins
+   // between assembled sections can step back by rounding.
+   private static final double SORT_TOLERANCE = 1e-9;
+
+   // computed when first needed and replaced as a whole, so a thread never sees another's
+   // half-computed values; see getStats
+   private volatile Stats stats;
+   private volatile int modCount = 0;  // see getModCount
+
+   private static class Stats {
+      final boolean isSorted;
+      final double xMin, xMax, yMin, yMax;
+      // areaSums[i], volumeSums[i] are the integrals of y and pi*y^2/4 from point 0 to point
+      // i, skipping any part of a segment that goes back over x already covered
+      final double[] areaSums;
+      final double[] volumeSums;
+
+      Stats(boolean isSorted, double xMin, double xMax, double yMin, double yMax,
+         double[] areaSums, double[] volumeSums) {
+         this.isSorted = isSorted;
+         this.xMin = xMin;
+         this.xMax = xMax;
+         this.yMin = yMin;
+         this.yMax = yMax;
+         this.areaSums = areaSums;
+         this.volumeSums = volumeSums;
+      }
+   }
+
+   /** Make a curve that uses (doesn't copy) the given arrays, which must be the same length. */
+   public ProfileCurve(double[] xValues, double[] yValues) {
+      if(xValues.length != yValues.length)
+         throw new IllegalArgumentException("x and y values differ in length: "
+            + xValues.length + ", " + yValues.length);
+      this.xValues = xValues;
+      this.yValues = yValues;
+   }
+
+   public int getNumPoints() {return xValues.length;}
+
+   public double getX(int i) {return xValues[i];}
+
+   public double getY(int i) {return yValues[i];}
+
+   public double getFirstY() {return yValues[0];}
+
+   public double getLastY() {return yValues[yValues.length - 1];}
+
+   /** Get a copy of the x values. */
+   public double[] getXValues() {return xValues.clone();}
+
+   /** Get a copy of the y values. */
+   public double[] getYValues() {return yValues.clone();}
+
+   /** Get copies of the values as {x values, y values}, e.g. for a chart series. */
+   public double[][] getXYValues() {return new double[][] {getXValues(), getYValues()};}
+
+   public double getXMin() {return getStats().xMin;}
+
+   public double getXMax() {return getStats().xMax;}
+
+   public double getYMin() {return getStats().yMin;}
+
+   public double getYMax() {return getStats().yMax;}
+
+   /** Returns if the x values never decrease, other than by rounding (a step back of a
+    *  tiny fraction of x, as at the joins of assembled sections, counts as a step). */
+   public boolean isSorted() {return getStats().isSorted;}
+
+   /** Find the segment that x is in: the i for which x(i) <= x < x(i+1), or the first or
+    *  last segment if x is off the ends. Where the curve steps (two points at the same x), x
+    *  is in the segment after the step. Returns -1 for curves with fewer than two points. */
+   public int findSegment(double x) {
+      int numPoints = xValues.length;
+      if(numPoints < 2) return -1;
+      if(!isSorted()) {
+         for(int i = 0; i < numPoints - 1; i++) {
+            if(xValues[i] <= x && x < xValues[i + 1]) return i;
+         }
+         return x < xValues[0] ? 0 : numPoints - 2;
+      }
+      // last point with x(i) <= x:
+      int lo = 0, hi = numPoints - 1;
+      while(lo < hi) {
+         int mid = (lo + hi + 1) >>> 1;
+         if(xValues[mid] <= x) lo = mid;
+         else hi = mid - 1;
+      }
+      return Math.min(lo, numPoints - 2);
+   }
+
+   /** Get the diameter at x, interpolating between points. Off the ends of the curve the
+    *  end diameters are used. Returns NaN for an empty curve. */
+   public double interpolateY(double x) {
+      int numPoints = xValues.length;
+      if(numPoints == 0) return Double.NaN;
+      if(numPoints == 1) return yValues[0];
+      return interpolateInSegment(findSegment(x), x);
+   }
+
+   /** Get the diameters at each of the given x values, which must be in increasing order.
+    *  For a sorted curve this is one pass along both arrays rather than a search per value. */
+   public double[] interpolateY(double[] sortedXs) {
+      double[] ys = new double[sortedXs.length];
+      interpolateY(sortedXs, ys);
+      return ys;
+   }
+
+   /** As interpolateY(double[]), but filling the given array. */
+   public void interpolateY(double[] sortedXs, double[] ys) {
+      int numPoints = xValues.length;
+      if(numPoints < 2 || !isSorted()) {
+         for(int j = 0; j < sortedXs.length; j++)
+            ys[j] = interpolateY(sortedXs[j]);
+         return;
+      }
+      int i = 0;
+      for(int j = 0; j < sortedXs.length; j++) {
+         double x = sortedXs[j];
+         while(i < numPoints - 2 && xValues[i + 1] <= x)
+            ++i;
+         ys[j] = interpolateInSegment(i, x);
+      }
+   }
+
+   /** Get the integral of the diameter from x1 to x2 (the area of a lengthwise slice through
+    *  the axis). Uses sums kept for each point, so only the ends are searched for. The
+    *  curve must be sorted (see isSorted). */
+   public double getArea(double x1, double x2) {
+      if(xValues.length < 2) return 0.;
+      Stats stats = getSortedStats();
+      return integralTo(stats.areaSums, x2, false) - integralTo(stats.areaSums, x1, false);
+   }
+
+   /** Get the volume of the bore (treating the diameters as circular cross sections) from
+    *  x1 to x2. Each segment is a frustum. Uses sums kept for each point, so only the ends
+    *  are searched for. The curve must be sorted (see isSorted). */
+   public double getVolume(double x1, double x2) {
+      if(xValues.length < 2) return 0.;
+      Stats stats = getSortedStats();
+      return integralTo(stats.volumeSums, x2, true) - integralTo(stats.volumeSums, x1, true);
+   }
+
+   /** Get the volume of the whole bore. Where an unsorted curve goes back over x it has
+    *  already covered, that part isn't counted again. */
+   public double getVolume() {
+      if(xValues.length < 2) return 0.;
+      double[] volumeSums = getStats().volumeSums;
+      return volumeSums[volumeSums.length - 1];
+   }
+
+   /** Multiply all the values by the given factor. */
+   public void scale(double factor) {
+      for(int i = 0; i < xValues.length; i++) {
+         xValues[i] *= factor;
+         yValues[i] *= factor;
+      }
+      stats = null;
+      ++modCount;
+   }
+
+   /** The number of times the curve has been changed (by scale), so a cached fingerprint
+    *  (see WMLData.Section.getFingerprint) can tell it's out of date. */
+   public int getModCount() {return modCount;}
+
+   /** Return a deep copy of this object. */
+   public ProfileCurve copy() {
+      return new ProfileCurve(xValues.clone(), yValues.clone());
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if(this == o) return true;
+      if(!(o instanceof ProfileCurve)) return false;
+      ProfileCurve other = (ProfileCurve) o;
+      return Arrays.equals(xValues, other.xValues) && Arrays.equals(yValues, other.yValues);
+   }
+
+   @Override
+   public int hashCode() {
+      return Long.hashCode(WMLUtil.fingerprint(WMLUtil.FINGERPRINT_SEED, this));
+   }
+
+   @Override
+   public String toString() {
+      return String.format("ProfileCurve(%d points)", xValues.length);
+   }
+
+   private double interpolateInSegment(int i, double x) {
+      double x0 = xValues[i], x1 = xValues[i + 1];
+      if(x <= x0) return yValues[i];
+      if(x >= x1) return yValues[i + 1];
+      return yValues[i] + (x - x0) / (x1 - x0) * (yValues[i + 1] - yValues[i]);
+   }
+
+   // the area or volume from the first point to x
+   private double integralTo(double[] sums, double x, boolean isVolume) {
+      x = clampX(x);
+      int i = findSegment(x);
+      double dx = Math.max(0., x - xValues[i]);
+      double y = interpolateInSegment(i, x);
+      return sums[i] + (isVolume ? frustumVolume(dx, yValues[i], y) : .5 * dx * (yValues[i] + y));
+   }
+
+   private double clampX(double x) {
+      return Math.max(xValues[0], Math.min(xValues[xValues.length - 1], x));
+   }
+
+   /** Get the volume of the solid of revolution with diameters ys at xs, of the first n
+    *  points, as getVolume does for a curve: where the x values go back (e.g. at a socket)
+    *  only the part of a segment beyond the points before it counts. */
+   static double volume(double[] xs, double[] ys, int n) {
+      return integrate(xs, ys, n, null, null);
+   }
+
+   // Fill areaSums and volumeSums (if not null) with the area and volume from the first
+   // point to each point, counting only the part of each segment beyond the points before
+   // it so that overlaps aren't counted twice, and return the volume.
+   private static double integrate(double[] xs, double[] ys, int n,
+      double[] areaSums, double[] volumeSums) {
+      double area = 0., volume = 0.;
+      double covered = Double.NEGATIVE_INFINITY;  // the furthest x of the points so far
+      for(int i = 0; i < n; i++) {
+         double x = xs[i], y = ys[i];
+         if(i > 0) {
+            double previous = xs[i - 1], previousY = ys[i - 1];
+            double start = Math.max(previous, covered);
+            double dx = Math.max(0., x - start);
+            double startY = dx > 0. && start > previous
+               ? previousY + (start - previous) / (x - previous) * (y - previousY) : previousY;
+            area += .5 * dx * (startY + y);
+            volume += frustumVolume(dx, startY, y);
+         }
+         if(areaSums != null) areaSums[i] = area;
+         if(volumeSums != null) volumeSums[i] = volume;
+         covered = Math.max(covered, x);
+      }
+      return volume;
+   }
+
+   private static double frustumVolume(double length, double diam1, double diam2) {
+      return Math.PI / 12. * length * (diam1 * diam1 + diam1 * diam2 + diam2 * diam2);
+   }
+
+   private Stats getSortedStats() {
+      Stats stats = getStats();
+      if(!stats.isSorted)
+         throw new IllegalStateException("Curve's x values aren't in order");
+      return stats;
+   }
+
+   // compute the ranges, sortedness and integral sums in one pass
+   private Stats getStats() {
+      Stats stats = this.stats;
+      if(stats != null) return stats;
+      int numPoints = xValues.length;
+      double xMin = Double.POSITIVE_INFINITY, yMin = Double.POSITIVE_INFINITY;
+      double xMax = Double.NEGATIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+      boolean isSorted = true;
+      for(int i = 0; i < numPoints; i++) {
+         double x = xValues[i], y = yValues[i];
+         if(x < xMin) xMin = x;
+         if(x > xMax) xMax = x;
+         if(y < yMin) yMin = y;
+         if(y > yMax) yMax = y;
+         if(i > 0) {
+            double previous = xValues[i - 1];
+            if(x < previous - SORT_TOLERANCE * Math.max(1., Math.abs(previous))) isSorted = false;
+         }
+      }
+      double[] areaSums = new double[numPoints];
+      double[] volumeSums = new double[numPoints];
+      integrate(xValues, yValues, numPoints, areaSums, volumeSums);
+      stats = new Stats(isSorted, xMin, xMax, yMin, yMax, areaSums, volumeSums);
+      this.stats = stats;
+      return stats;
+   }
+}
@@ -0,0 +1,226 @@
+package forbesflutes.wml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import forbesflutes.wml.WMLData.AssembledSectionInfo;
+import forbesflutes.wml.WMLData.AssemblyInfo;
+import forbesflutes.wml.WMLData.Joint;
+import forbesflutes.wml.WMLData.Joint.TenonDirection;
+import forbesflutes.wml.WMLData.Part;
+import forbesflutes.wml.WMLData.Section;
+
+/** Joins sections end to end into one assembled section, as Part.createAssembledSection
+ *  does. Sections are added one at a time, and the state after any number of them can be
+ *  saved and restored. That lets assembleAll assemble every combination of a part's
+ *  sections and alternate sections depth first: combinations that share their leading
+ *  sections share the work of joining those sections, instead of each starting again. */
+public class SectionAssembler {
+   private final DoubleArrayList boreXCoords = new DoubleArrayList();
+   private final DoubleArrayList boreDiams = new DoubleArrayList();
+   private final DoubleArrayList bodyXCoords = new DoubleArrayList();
+   private final DoubleArrayList bodyDiams = new DoubleArrayList();
+   private final IntArrayList boreSectionBreakIndices = new IntArrayList();
+   private final IntArrayList bodySectionBreakIndices = new IntArrayList();
+   private final ToneHoleTable toneHoles = new ToneHoleTable();
+   private double sectionStartX = 0.;  // cumulative start of next section; joints considered
+   private Section firstSection;       // nullable
+
+   /** One assembly of a part: which sections were used, and the result. */
+   public static class Combination {
+      public final AssemblyInfo assemblyInfo;
+      public final AssembledSectionInfo assembled;
+
+      public Combination(AssemblyInfo assemblyInfo, AssembledSectionInfo assembled) {
+         this.assemblyInfo = assemblyInfo;
+         this.assembled = assembled;
+      }
+   }
+
+   /** The assembler's position, for restore(). */
+   public static class State {
+      private final int numBorePoints, numBodyPoints, numBoreBreaks, numBodyBreaks, numToneHoles;
+      private final double sectionStartX;
+      private final Section firstSection;
+
+      private State(SectionAssembler assembler) {
+         numBorePoints = assembler.boreXCoords.size();
+         numBodyPoints = assembler.bodyXCoords.size();
+         numBoreBreaks = assembler.boreSectionBreakIndices.size();
+         numBodyBreaks = assembler.bodySectionBreakIndices.size();
+         numToneHoles = assembler.toneHoles.size();
+         sectionStartX = assembler.sectionStartX;
+         firstSection = assembler.firstSection;
+      }
+   }
+
+   /** Add the next section. bottomJoint (nullable) joins it to the next section, and
+    *  extension is how far that joint is pulled out. */
+   public void addSection(Section section, Joint bottomJoint, double extension) {
+      addSection(section, bottomJoint, extension, extension > 0.);
+   }
+
+   /** As addSection, but addExtension says whether to add the points of the extension, so
+    *  an extension of 0 can still have them (see ExtensionSweep). */
+   void addSection(Section section, Joint bottomJoint, double extension, boolean addExtension) {
+      // tone holes:
+      toneHoles.addAll(section.toneHoles, sectionStartX);
+      double boreCoordOffset = 0.;
+
+      // If section has a top socket, correct for bore measurement offset:
+      if(section.hasTopSocket())
+         boreCoordOffset = -section.topJoint.tenonLength;
+
+      // bore/body breaks
+      if(firstSection != null) {
+         boreSectionBreakIndices.add(boreDiams.size() - 1);
+         bodySectionBreakIndices.add(bodyDiams.size() - 1);
+      }
+      else {
+         firstSection = section;
+      }
+      addProfile(section.boreCurve, sectionStartX + boreCoordOffset, boreXCoords, boreDiams);
+      addProfile(section.bodyCurve, sectionStartX + boreCoordOffset, bodyXCoords, bodyDiams);
+      sectionStartX += section.length;
+      if(bottomJoint != null) {
+         // section coords start at socket root
+         sectionStartX -= bottomJoint.tenonLength;
+      }
+
+      if(bottomJoint != null && addExtension) {
+         double tenonLength = bottomJoint.tenonLength;
+         double tenonDiam = bottomJoint.tenonDiam;
+         TenonDirection tenonDirection = bottomJoint.tenonDirection;
+         double bodyExtensionStart = (tenonDirection == TenonDirection.UP) ?
+            sectionStartX + tenonLength:
+            sectionStartX;
+         bodyXCoords.add(bodyExtensionStart);
+         bodyDiams.add(tenonDiam);
+         bodyXCoords.add(bodyExtensionStart + extension);
+         bodyDiams.add(tenonDiam);
+         double boreExtensionStart = (tenonDirection == TenonDirection.UP) ?
+               sectionStartX:
+               sectionStartX + tenonLength;
+         boreXCoords.add(boreExtensionStart);
+         boreDiams.add(tenonDiam);
+         boreXCoords.add(boreExtensionStart + extension);
+         boreDiams.add(tenonDiam);
+         sectionStartX += extension;
+      }
+   }
+
+   int getNumBorePoints() {return boreXCoords.size();}
+
+   int getNumBodyPoints() {return bodyXCoords.size();}
+
+   int getNumToneHoles() {return toneHoles.size();}
+
+   /** Get the current position, to go back to later with restore(). */
+   public State save() {
+      return new State(this);
+   }
+
+   /** Go back to a position returned by save(), dropping the sections added since. */
+   public void restore(State state) {
+      boreXCoords.truncate(state.numBorePoints);
+      boreDiams.truncate(state.numBorePoints);
+      bodyXCoords.truncate(state.numBodyPoints);
+      bodyDiams.truncate(state.numBodyPoints);
+      boreSectionBreakIndices.truncate(state.numBoreBreaks);
+      bodySectionBreakIndices.truncate(state.numBodyBreaks);
+      toneHoles.truncate(state.numToneHoles);
+      sectionStartX = state.sectionStartX;
+      firstSection = state.firstSection;
+   }
+
+   /** Make the assembled section from the sections added so far. The assembler can go on
+    *  being used; the result doesn't share anything that it changes. */
+   public AssembledSectionInfo finish() {
+      Section assSection = new Section();
+      assSection.name = "Assembled";
+      assSection.toneHoles = toneHoles.copy();
+      assSection.boreCurve = new ProfileCurve(boreXCoords.toArray(), boreDiams.toArray());
+      assSection.bodyCurve = new ProfileCurve(bodyXCoords.toArray(), bodyDiams.toArray());
+      assSection.length = sectionStartX;
+      assSection.blowHole = firstSection == null ? null : firstSection.blowHole;
+      return new AssembledSectionInfo(assSection, bodySectionBreakIndices.toArray(),
+            boreSectionBreakIndices.toArray());
+   }
+
+   /** Assemble a part. info (nullable) chooses alternate sections and joint extensions;
+    *  with no info, the main sections are used with their own extensions. */
+   public static AssembledSectionInfo assemble(Part part, AssemblyInfo info) {
+      SectionAssembler assembler = new SectionAssembler();
+      for(int i = 0; i < part.sections.size(); i++) {
+         Section section = part.sections.get(i);
+         String altName = info == null ? null : info.getAltSectionName(i);
+         if(altName != null)
+            section = findAltSection(section, altName);
+         double[] jointExtensions = info == null ? null : info.jointExtensions;
+         assembler.addSection(section, section.bottomJoint, getExtension(section, i, jointExtensions));
+      }
+      return assembler.finish();
+   }
+
+   /** Assemble every combination of the part's sections and their alternates, in order:
+    *  the main sections first, and then with the alternates of the last position varying
+    *  fastest. jointExtensions (nullable) overrides the joints' own extensions, as in
+    *  AssemblyInfo. */
+   public static List<Combination> assembleAll(Part part, double[] jointExtensions) {
+      List<Combination> combinations = new ArrayList<Combination>();
+      String[] altNames = new String[part.sections.size()];
+      new SectionAssembler().assembleFrom(part, 0, jointExtensions, altNames, combinations);
+      return combinations;
+   }
+
+   /** Get the number of combinations assembleAll would make for the part. */
+   public static long getNumCombinations(Part part) {
+      long count = 1;
+      for(Section section: part.sections)
+         count *= 1 + section.altSections.size();
+      return count;
+   }
+
+   // assemble every combination of the sections from position on, after those added so far
+   private void assembleFrom(Part part, int position, double[] jointExtensions,
+      String[] altNames, List<Combination> combinations) {
+      if(position == part.sections.size()) {
+         AssemblyInfo info = new AssemblyInfo(jointExtensions, Arrays.asList(altNames.clone()));
+         combinations.add(new Combination(info, finish()));
+         return;
+      }
+      Section mainSection = part.sections.get(position);
+      State state = save();
+      for(int i = -1; i < mainSection.altSections.size(); i++) {
+         Section section = i < 0 ? mainSection : mainSection.altSections.get(i);
+         altNames[position] = i < 0 ? null : section.name;
+         addSection(section, section.bottomJoint, getExtension(section, position, jointExtensions));
+         assembleFrom(part, position + 1, jointExtensions, altNames, combinations);
+         restore(state);
+      }
+   }
+
+   // the extension of the joint below the section at position
+   static double getExtension(Section section, int position, double[] jointExtensions) {
+      if(jointExtensions != null && position < jointExtensions.length)
+         return jointExtensions[position];
+      return section.bottomJoint == null ? 0. : section.bottomJoint.extension;
+   }
+
+   static Section findAltSection(Section section, String altName) {
+      for(Section altSection: section.altSections)
+         if(altName.equals(altSection.name)) return altSection;
+      throw new IllegalArgumentException("No alternate section " + altName + " for section "
+         + section.name);
+   }
+
+   private static void addProfile(ProfileCurve curve, double xOffset,
+       DoubleArrayList assXCoords, DoubleArrayList assDiams) {
+      int numPoints = curve.getNumPoints();
+      for(int i = 0; i < numPoints; i++) {
+         assXCoords.add(curve.getX(i) + xOffset);
+         assDiams.add(curve.getY(i));
+      }
+   }
+}
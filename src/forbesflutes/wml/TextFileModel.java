@@ -70,6 +70,21 @@ public class TextFileModel {
       notifyListeners() ;
    }
 
+   /** Set the in-memory text after an edit that only changed lines firstChangedLine 
+    *  through lastChangedLine (1-based, numbered as in the new text). Subclasses can 
+    *  use the range to avoid reprocessing all of the text. */
+   public void setText(String text, int firstChangedLine, int lastChangedLine) {
+      setText(text);
+   }
+   
+   /** Count the lines in a text, the way a text component does (one more than the number of newlines). */
+   public static int countLines(String text) {
+      int numLines = 1;
+      for(int i = 0; i < text.length(); i++)
+         if(text.charAt(i) == '\n') ++numLines;
+      return numLines;
+   }
+
    /** Open a new file and make it the current file. */
    public void open(String filePath) throws IOException {
       this.filePath = filePath;
@@ -0,0 +1,321 @@
+package forbesflutes.wml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import forbesflutes.wml.WMLData.Joint;
+import forbesflutes.wml.WMLData.Joint.TenonDirection;
+import forbesflutes.wml.WMLData.Part;
+import forbesflutes.wml.WMLData.Section;
+
+/** Monte Carlo analysis of how measurement error affects quantities derived from a part:
+ *  its assembled length, the distance from the blow hole to each tone hole, the wall
+ *  thickness at each tone hole, and the bore volume. Each sample adds normally distributed
+ *  errors to every measurement (with the standard deviations given in Tolerances),
+ *  assembles the part as Part.createAssembledSection would, and computes the quantities.
+ *
+ *  Samples are run in chunks spread over a fork-join pool. Each chunk has its own random
+ *  stream, split from the seed in chunk order, so the results depend only on the seed and
+ *  not on how the chunks were scheduled. Each worker thread has one set of scratch arrays
+ *  holding a perturbed copy of the part's numbers, which it reuses for all its samples;
+ *  nothing is allocated per sample. */
+public class ToleranceAnalysis {
+   private static final int SAMPLES_PER_CHUNK = 1024;
+
+   /** Standard deviations of the measurement errors, in the data's units. */
+   public static class Tolerances {
+      public double sectionLength;
+      public double toneHoleXCoord;
+      public double toneHoleBodyDiam;
+      public double blowHoleXCoord;
+      public double tenonLength;
+      public double tenonDiam;
+      public double profileXCoord;  // of bore and body points
+      public double profileDiam;
+
+      /** Make tolerances with the same error for every length and diameter. */
+      public static Tolerances uniform(double length, double diam) {
+         Tolerances tolerances = new Tolerances();
+         tolerances.sectionLength = tolerances.toneHoleXCoord = tolerances.blowHoleXCoord =
+            tolerances.tenonLength = tolerances.profileXCoord = length;
+         tolerances.toneHoleBodyDiam = tolerances.tenonDiam =
+            tolerances.profileDiam = diam;
+         return tolerances;
+      }
+   }
+
+   /** The samples of one derived quantity, and their statistics. */
+   public static class Distribution {
+      public final double nominal;  // from the unperturbed measurements
+      public final double mean;
+      public final double stdDev;
+      private final double[] sortedSamples;
+
+      private Distribution(double nominal, double[] samples) {
+         this.nominal = nominal;
+         double sum = 0.;
+         for(double sample: samples)
+            sum += sample;
+         mean = sum / samples.length;
+         double sumSquares = 0.;
+         for(double sample: samples)
+            sumSquares += (sample - mean) * (sample - mean);
+         stdDev = samples.length > 1 ? Math.sqrt(sumSquares / (samples.length - 1)) : 0.;
+         Arrays.sort(samples);
+         sortedSamples = samples;
+      }
+
+      public int getNumSamples() {return sortedSamples.length;}
+
+      public double getMin() {return sortedSamples[0];}
+
+      public double getMax() {return sortedSamples[sortedSamples.length - 1];}
+
+      /** Get the value below which the given fraction (0 to 1) of the samples fall,
+       *  interpolating between samples. */
+      public double getPercentile(double fraction) {
+         double position = fraction * (sortedSamples.length - 1);
+         int i = (int) Math.floor(position);
+         if(i >= sortedSamples.length - 1) return getMax();
+         if(i < 0) return getMin();
+         return sortedSamples[i] + (position - i) * (sortedSamples[i + 1] - sortedSamples[i]);
+      }
+
+      @Override
+      public String toString() {
+         return String.format("nominal %.5g, mean %.5g, sd %.3g, 95%% in [%.5g, %.5g]", nominal,
+            mean, stdDev, getPercentile(.025), getPercentile(.975));
+      }
+   }
+
+   /** The distributions of the derived quantities. The tone hole arrays are in assembled
+    *  order, top first; toneHoleDistances is empty for parts with no blow hole. */
+   public static class Result {
+      public final Distribution assembledLength;
+      public final Distribution boreVolume;
+      public final Distribution[] toneHoleDistances;
+      public final Distribution[] wallThicknesses;
+
+      private Result(Distribution assembledLength, Distribution boreVolume,
+         Distribution[] toneHoleDistances, Distribution[] wallThicknesses) {
+         this.assembledLength = assembledLength;
+         this.boreVolume = boreVolume;
+         this.toneHoleDistances = toneHoleDistances;
+         this.wallThicknesses = wallThicknesses;
+      }
+   }
+
+   private final Part part;
+   private final Tolerances tolerances;
+   private final int numToneHoles;
+   private final int maxBorePoints;  // in the assembled bore
+   private final boolean hasBlowHole;
+
+   public ToleranceAnalysis(Part part, Tolerances tolerances) {
+      if(part.sections.isEmpty())
+         throw new IllegalArgumentException("Part has no sections");
+      this.part = part;
+      this.tolerances = tolerances;
+      int holes = 0, borePoints = 0;
+      for(Section section: part.sections) {
+         holes += section.toneHoles.size();
+         borePoints += section.boreCurve.getNumPoints() + 2;  // + an extension
+      }
+      numToneHoles = holes;
+      maxBorePoints = borePoints;
+      hasBlowHole = part.sections.get(0).blowHole != null;
+   }
+
+   /** Run numSamples samples on the common fork-join pool. */
+   public Result run(int numSamples, long seed) {
+      return run(numSamples, seed, ForkJoinPool.commonPool());
+   }
+
+   /** Run numSamples samples on the given pool. The same seed gives the same result. */
+   public Result run(int numSamples, long seed, ForkJoinPool pool) {
+      if(numSamples < 1)
+         throw new IllegalArgumentException("Need at least one sample, got " + numSamples);
+      int numQuantities = getNumQuantities();
+      double[][] samples = new double[numQuantities][numSamples];
+      int numChunks = (numSamples + SAMPLES_PER_CHUNK - 1) / SAMPLES_PER_CHUNK;
+      SplittableRandom root = new SplittableRandom(seed);
+      SplittableRandom[] chunkRandoms = new SplittableRandom[numChunks];
+      for(int c = 0; c < numChunks; c++)
+         chunkRandoms[c] = root.split();
+      int numWorkers = Math.min(pool.getParallelism(), numChunks);
+      pool.invoke(new Workers(samples, chunkRandoms, numWorkers));
+
+      double[] nominal = new double[numQuantities];
+      new Scratch().sample(null, nominal);
+      Distribution[] distributions = new Distribution[numQuantities];
+      for(int q = 0; q < numQuantities; q++)
+         distributions[q] = new Distribution(nominal[q], samples[q]);
+      int numDistances = hasBlowHole ? numToneHoles : 0;
+      return new Result(distributions[0], distributions[1],
+         Arrays.copyOfRange(distributions, 2, 2 + numDistances),
+         Arrays.copyOfRange(distributions, 2 + numDistances, numQuantities));
+   }
+
+   // length, volume, distances (if there's a blow hole), wall thicknesses
+   private int getNumQuantities() {
+      return 2 + (hasBlowHole ? 2 : 1) * numToneHoles;
+   }
+
+   // the worker tasks, each taking chunks until there are none left
+   private class Workers extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private final double[][] samples;
+      private final SplittableRandom[] chunkRandoms;
+      private final int numWorkers;
+      private final AtomicInteger nextChunk = new AtomicInteger();
+
+      Workers(double[][] samples, SplittableRandom[] chunkRandoms, int numWorkers) {
+         this.samples = samples;
+         this.chunkRandoms = chunkRandoms;
+         this.numWorkers = numWorkers;
+      }
+
+      @Override
+      protected void compute() {
+         List<RecursiveAction> workers = new ArrayList<RecursiveAction>();
+         for(int w = 0; w < numWorkers; w++) {
+            workers.add(new RecursiveAction() {
+               private static final long serialVersionUID = 1L;
+
+               @Override
+               protected void compute() {
+                  Scratch scratch = new Scratch();
+                  double[] quantities = new double[samples.length];
+                  int numSamples = samples[0].length;
+                  int c;
+                  while((c = nextChunk.getAndIncrement()) < chunkRandoms.length) {
+                     int end = Math.min(numSamples, (c + 1) * SAMPLES_PER_CHUNK);
+                     for(int s = c * SAMPLES_PER_CHUNK; s < end; s++)
+                        scratch.sample(chunkRandoms[c], quantities, samples, s);
+                  }
+               }
+            });
+         }
+         invokeAll(workers);
+      }
+   }
+
+   /** A perturbed copy of the part's numbers, and the assembled bore made from them. */
+   private class Scratch {
+      final double[] profileX = new double[maxProfilePoints()];
+      final double[] profileY = new double[maxProfilePoints()];
+      final double[] assembledBoreX = new double[maxBorePoints];
+      final double[] assembledBoreY = new double[maxBorePoints];
+
+      // sample into quantities, and copy them into samples[q][s]
+      void sample(SplittableRandom random, double[] quantities, double[][] samples, int s) {
+         sample(random, quantities);
+         for(int q = 0; q < quantities.length; q++)
+            samples[q][s] = quantities[q];
+      }
+
+      // compute the quantities for one sample; no errors are added if random is null
+      void sample(SplittableRandom random, double[] quantities) {
+         int numSections = part.sections.size();
+         int numDistances = hasBlowHole ? numToneHoles : 0;
+         double sectionStartX = 0.;
+         double blowHoleX = 0.;
+         int hole = 0;
+         int numBorePoints = 0;
+         double topTenonLength = 0.;  // of the current section's top joint
+         Joint firstTopJoint = part.sections.get(0).topJoint;
+         if(firstTopJoint != null)
+            topTenonLength = perturb(random, firstTopJoint.tenonLength, tolerances.tenonLength);
+         for(int i = 0; i < numSections; i++) {
+            Section section = part.sections.get(i);
+            double length = perturb(random, section.length, tolerances.sectionLength);
+            if(i == 0 && hasBlowHole)
+               blowHoleX = perturb(random, section.blowHole.xCoord, tolerances.blowHoleXCoord);
+
+            // this section's profiles; bore in [0, numBore), body after it
+            ProfileCurve bore = section.boreCurve, body = section.bodyCurve;
+            int numBore = bore.getNumPoints(), numBody = body.getNumPoints();
+            perturbProfile(random, bore, 0);
+            perturbProfile(random, body, numBore);
+
+            ToneHoleTable toneHoles = section.toneHoles;
+            for(int h = 0; h < toneHoles.size(); h++, hole++) {
+               double x = perturb(random, toneHoles.getXCoord(h), tolerances.toneHoleXCoord);
+               double nominalBodyDiam = toneHoles.getBodyDiam(h);
+               double bodyDiam = nominalBodyDiam > 0. ?
+                  perturb(random, nominalBodyDiam, tolerances.toneHoleBodyDiam) :
+                  interpolate(profileX, profileY, numBore, numBody, x);
+               double boreDiam = interpolate(profileX, profileY, 0, numBore, x);
+               if(hasBlowHole)
+                  quantities[2 + hole] = sectionStartX + x - blowHoleX;
+               quantities[2 + numDistances + hole] = .5 * (bodyDiam - boreDiam);
+            }
+
+            // add the bore to the assembly, as SectionAssembler does
+            double boreOffset = section.hasTopSocket() ? -topTenonLength : 0.;
+            for(int p = 0; p < numBore; p++) {
+               assembledBoreX[numBorePoints] = sectionStartX + boreOffset + profileX[p];
+               assembledBoreY[numBorePoints] = profileY[p];
+               ++numBorePoints;
+            }
+            sectionStartX += length;
+            Joint joint = section.bottomJoint;
+            if(joint != null) {
+               double tenonLength = perturb(random, joint.tenonLength, tolerances.tenonLength);
+               double tenonDiam = perturb(random, joint.tenonDiam, tolerances.tenonDiam);
+               sectionStartX -= tenonLength;
+               if(joint.extension > 0.) {
+                  double start = joint.tenonDirection == TenonDirection.UP ? sectionStartX :
+                     sectionStartX + tenonLength;
+                  assembledBoreX[numBorePoints] = start;
+                  assembledBoreY[numBorePoints++] = tenonDiam;
+                  assembledBoreX[numBorePoints] = start + joint.extension;
+                  assembledBoreY[numBorePoints++] = tenonDiam;
+                  sectionStartX += joint.extension;
+               }
+               topTenonLength = tenonLength;
+            }
+         }
+         quantities[0] = sectionStartX;
+         quantities[1] = ProfileCurve.volume(assembledBoreX, assembledBoreY, numBorePoints);
+      }
+
+      // perturb a profile into profileX/Y from index start
+      private void perturbProfile(SplittableRandom random, ProfileCurve curve, int start) {
+         for(int p = 0; p < curve.getNumPoints(); p++) {
+            profileX[start + p] = perturb(random, curve.getX(p), tolerances.profileXCoord);
+            profileY[start + p] = perturb(random, curve.getY(p), tolerances.profileDiam);
+         }
+      }
+   }
+
+   private int maxProfilePoints() {
+      int max = 0;
+      for(Section section: part.sections)
+         max = Math.max(max, section.boreCurve.getNumPoints() + section.bodyCurve.getNumPoints());
+      return max;
+   }
+
+   private static double perturb(SplittableRandom random, double value, double stdDev) {
+      if(random == null || stdDev == 0.) return value;
+      return value + stdDev * random.nextGaussian();
+   }
+
+   // interpolate the profile of n points from start at x, as ProfileCurve.interpolateY does
+   private static double interpolate(double[] xs, double[] ys, int start, int n, double x) {
+      if(n == 0) return Double.NaN;
+      int end = start + n - 1;
+      if(x <= xs[start]) return ys[start];
+      for(int i = start; i < end; i++) {
+         double x0 = xs[i], x1 = xs[i + 1];
+         if(x >= x0 && x < x1)
+            return ys[i] + (x - x0) / (x1 - x0) * (ys[i + 1] - ys[i]);
+      }
+      return ys[end];
+   }
+}
@@ -0,0 +1,214 @@
+package forbesflutes.wml;
+
+import java.util.Arrays;
+
+/** The tone holes of a section, stored by column: one array per measurement rather than one
+ *  object per hole. Bulk operations (offsetting for assembly, scaling for unit conversion,
+ *  sorting by position) are then simple loops over primitive arrays, and a section's holes
+ *  take a handful of arrays instead of an object each. Holes are accessed by index;
+ *  get(i) makes a WMLData.ToneHole for code that wants one object per hole. */
+public class ToneHoleTable {
+   private int size = 0;
+   private double[] xCoords;     // location in section; required
+   private double[] diams;       // required
+   private double[] bodyDiams;   // optional
+   private double[] bodyToTops;  // optional. For inset tone holes
+   private double[] angles;      // optional; clockwise looking down the instrument, in degrees
+   private volatile int modCount = 0;  // see getModCount
+
+   public ToneHoleTable() {
+      this(8);
+   }
+
+   public ToneHoleTable(int capacity) {
+      xCoords = new double[capacity];
+      diams = new double[capacity];
+      bodyDiams = new double[capacity];
+      bodyToTops = new double[capacity];
+      angles = new double[capacity];
+   }
+
+   public int size() {return size;}
+
+   public boolean isEmpty() {return size == 0;}
+
+   /** Add a tone hole with no angle. */
+   public void add(double xCoord, double diam, double bodyDiam, double bodyToTop) {
+      add(xCoord, diam, bodyDiam, bodyToTop, 0.);
+   }
+
+   public void add(double xCoord, double diam, double bodyDiam, double bodyToTop, double angle) {
+      ensureCapacity(size + 1);
+      xCoords[size] = xCoord;
+      diams[size] = diam;
+      bodyDiams[size] = bodyDiam;
+      bodyToTops[size] = bodyToTop;
+      angles[size] = angle;
+      ++size;
+      ++modCount;
+   }
+
+   public void add(WMLData.ToneHole toneHole) {
+      add(toneHole.xCoord, toneHole.diam, toneHole.bodyDiam, toneHole.bodyToTop, toneHole.angle);
+   }
+
+   /** Add all the holes of another table, moving them xOffset along the section. */
+   public void addAll(ToneHoleTable other, double xOffset) {
+      ensureCapacity(size + other.size);
+      for(int i = 0; i < other.size; i++)
+         xCoords[size + i] = other.xCoords[i] + xOffset;
+      System.arraycopy(other.diams, 0, diams, size, other.size);
+      System.arraycopy(other.bodyDiams, 0, bodyDiams, size, other.size);
+      System.arraycopy(other.bodyToTops, 0, bodyToTops, size, other.size);
+      System.arraycopy(other.angles, 0, angles, size, other.size);
+      size += other.size;
+      ++modCount;
+   }
+
+   public void remove(int i) {
+      checkIndex(i);
+      int numAfter = size - i - 1;
+      System.arraycopy(xCoords, i + 1, xCoords, i, numAfter);
+      System.arraycopy(diams, i + 1, diams, i, numAfter);
+      System.arraycopy(bodyDiams, i + 1, bodyDiams, i, numAfter);
+      System.arraycopy(bodyToTops, i + 1, bodyToTops, i, numAfter);
+      System.arraycopy(angles, i + 1, angles, i, numAfter);
+      --size;
+      ++modCount;
+   }
+
+   public void clear() {size = 0; ++modCount;}
+
+   /** Remove the holes from index newSize on. */
+   public void truncate(int newSize) {
+      if(newSize < 0 || newSize > size)
+         throw new IndexOutOfBoundsException("new size " + newSize + ", size " + size);
+      size = newSize;
+      ++modCount;
+   }
+
+   public double getXCoord(int i) {checkIndex(i); return xCoords[i];}
+   public double getDiam(int i) {checkIndex(i); return diams[i];}
+   public double getBodyDiam(int i) {checkIndex(i); return bodyDiams[i];}
+   public double getBodyToTop(int i) {checkIndex(i); return bodyToTops[i];}
+   public double getAngle(int i) {checkIndex(i); return angles[i];}
+
+   public void setXCoord(int i, double xCoord) {checkIndex(i); xCoords[i] = xCoord; ++modCount;}
+   public void setDiam(int i, double diam) {checkIndex(i); diams[i] = diam; ++modCount;}
+   public void setBodyDiam(int i, double bodyDiam) {checkIndex(i); bodyDiams[i] = bodyDiam; ++modCount;}
+   public void setBodyToTop(int i, double bodyToTop) {checkIndex(i); bodyToTops[i] = bodyToTop; ++modCount;}
+   public void setAngle(int i, double angle) {checkIndex(i); angles[i] = angle; ++modCount;}
+
+   /** The number of changes made to the table, so a cached fingerprint (see
+    *  WMLData.Section.getFingerprint) can tell it's out of date. */
+   public int getModCount() {return modCount;}
+
+   /** Make a ToneHole object holding (a copy of) hole i. */
+   public WMLData.ToneHole get(int i) {
+      checkIndex(i);
+      WMLData.ToneHole toneHole = new WMLData.ToneHole(xCoords[i], diams[i], bodyDiams[i], bodyToTops[i]);
+      toneHole.angle = angles[i];
+      return toneHole;
+   }
+
+   /** Get a copy of the x coordinates of all the holes. */
+   public double[] getXCoords() {return Arrays.copyOf(xCoords, size);}
+
+   /** Get a copy of the diameters of all the holes. */
+   public double[] getDiams() {return Arrays.copyOf(diams, size);}
+
+   /** Move all the holes along the section. */
+   public void offsetXCoords(double xOffset) {
+      for(int i = 0; i < size; i++)
+         xCoords[i] += xOffset;
+      ++modCount;
+   }
+
+   /** Multiply all the lengths by the given factor (angles are unchanged). */
+   public void scale(double factor) {
+      for(int i = 0; i < size; i++) {
+         xCoords[i] *= factor;
+         diams[i] *= factor;
+         bodyDiams[i] *= factor;
+         bodyToTops[i] *= factor;
+      }
+      ++modCount;
+   }
+
+   /** Sort the holes by position, top first. Holes are nearly always in order already,
+    *  so this is an insertion sort, which is linear for sorted input. */
+   public void sortByXCoord() {
+      for(int i = 1; i < size; i++) {
+         double x = xCoords[i];
+         if(xCoords[i - 1] <= x) continue;
+         double diam = diams[i], bodyDiam = bodyDiams[i], bodyToTop = bodyToTops[i], angle = angles[i];
+         int j = i - 1;
+         while(j >= 0 && xCoords[j] > x) {
+            xCoords[j + 1] = xCoords[j];
+            diams[j + 1] = diams[j];
+            bodyDiams[j + 1] = bodyDiams[j];
+            bodyToTops[j + 1] = bodyToTops[j];
+            angles[j + 1] = angles[j];
+            --j;
+         }
+         xCoords[j + 1] = x;
+         diams[j + 1] = diam;
+         bodyDiams[j + 1] = bodyDiam;
+         bodyToTops[j + 1] = bodyToTop;
+         angles[j + 1] = angle;
+         ++modCount;
+      }
+   }
+
+   /** Return a deep copy of this object, with no spare capacity. */
+   public ToneHoleTable copy() {
+      ToneHoleTable copy = new ToneHoleTable(size);
+      copy.addAll(this, 0.);
+      return copy;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if(!(o instanceof ToneHoleTable)) return false;
+      ToneHoleTable other = (ToneHoleTable) o;
+      return size == other.size
+         && Arrays.equals(xCoords, 0, size, other.xCoords, 0, size)
+         && Arrays.equals(diams, 0, size, other.diams, 0, size)
+         && Arrays.equals(bodyDiams, 0, size, other.bodyDiams, 0, size)
+         && Arrays.equals(bodyToTops, 0, size, other.bodyToTops, 0, size)
+         && Arrays.equals(angles, 0, size, other.angles, 0, size);
+   }
+
+   @Override
+   public int hashCode() {
+      return Long.hashCode(fingerprint(WMLUtil.FINGERPRINT_SEED));
+   }
+
+   /** Mix all the holes into a fingerprint (see WMLUtil.fingerprint). */
+   public long fingerprint(long hash) {
+      hash = WMLUtil.fingerprint(hash, (long) size);
+      for(int i = 0; i < size; i++) {
+         hash = WMLUtil.fingerprint(hash, xCoords[i]);
+         hash = WMLUtil.fingerprint(hash, diams[i]);
+         hash = WMLUtil.fingerprint(hash, bodyDiams[i]);
+         hash = WMLUtil.fingerprint(hash, bodyToTops[i]);
+         hash = WMLUtil.fingerprint(hash, angles[i]);
+      }
+      return hash;
+   }
+
+   private void ensureCapacity(int capacity) {
+      if(capacity <= xCoords.length) return;
+      int newCapacity = Math.max(capacity, 2 * xCoords.length);
+      xCoords = Arrays.copyOf(xCoords, newCapacity);
+      diams = Arrays.copyOf(diams, newCapacity);
+      bodyDiams = Arrays.copyOf(bodyDiams, newCapacity);
+      bodyToTops = Arrays.copyOf(bodyToTops, newCapacity);
+      angles = Arrays.copyOf(angles, newCapacity);
+   }
+
+   private void checkIndex(int i) {
+      if(i < 0 || i >= size)
+         throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+   }
+}
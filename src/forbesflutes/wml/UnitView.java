@@ -0,0 +1,139 @@
+package forbesflutes.wml;
+
+import forbesflutes.wml.WMLData.Units;
+
+/** A read-only view of WMLData in given units. Nothing is copied: lengths are converted
+ *  from the data's own units as they are read, and the bulk accessors (e.g. getBoreXValues)
+ *  convert a whole curve into a new array in one pass. The view reads through to the data,
+ *  so it shows any later changes; views are cheap, so make one where it's needed rather
+ *  than keeping it. Fields that aren't lengths (names, directions etc.) are read from the
+ *  data itself. */
+public final class UnitView {
+   private final WMLData data;
+   private final Units units;
+   private final double factor;  // from the data's units to the view's
+
+   public UnitView(WMLData data, Units units) {
+      this.data = data;
+      this.units = units;
+      factor = data.units == units ? 1. : WMLData.getConversionFactor(units);
+   }
+
+   public WMLData getData() {return data;}
+
+   public Units getUnits() {return units;}
+
+   /** The factor lengths in the data are multiplied by. */
+   public double getFactor() {return factor;}
+
+   /** Convert a length in the data's units to the view's. */
+   public double convert(double length) {return length * factor;}
+
+   public int getNumParts() {return data.parts.size();}
+
+   public PartView getPart(int i) {return new PartView(data.parts.get(i), factor);}
+
+   /** View a section in the data's units (e.g. an assembled one) in this view's units. */
+   public SectionView view(WMLData.Section section) {return new SectionView(section, factor);}
+
+   /** A Part in the view's units. */
+   public static final class PartView {
+      private final WMLData.Part part;
+      private final double factor;
+
+      private PartView(WMLData.Part part, double factor) {
+         this.part = part;
+         this.factor = factor;
+      }
+
+      public WMLData.Part getPart() {return part;}
+
+      public int getNumSections() {return part.sections.size();}
+
+      public SectionView getSection(int i) {return new SectionView(part.sections.get(i), factor);}
+   }
+
+   /** A Section in the view's units. */
+   public static final class SectionView {
+      private final WMLData.Section section;
+      private final double factor;
+
+      private SectionView(WMLData.Section section, double factor) {
+         this.section = section;
+         this.factor = factor;
+      }
+
+      public WMLData.Section getSection() {return section;}
+
+      public double getLength() {return section.length * factor;}
+
+      public boolean hasBlowHole() {return section.blowHole != null;}
+
+      public double getBlowHoleXCoord() {return section.blowHole.xCoord * factor;}
+      public double getBlowHoleLength() {return section.blowHole.length * factor;}
+      public double getBlowHoleWidth() {return section.blowHole.width * factor;}
+      public double getBlowHoleBodyDiam() {return section.blowHole.bodyDiam * factor;}
+      public double getCorkDist() {return section.blowHole.corkDist * factor;}
+
+      public int getNumToneHoles() {return section.toneHoles.size();}
+
+      public double getToneHoleXCoord(int i) {return section.toneHoles.getXCoord(i) * factor;}
+      public double getToneHoleDiam(int i) {return section.toneHoles.getDiam(i) * factor;}
+      public double getToneHoleBodyDiam(int i) {return section.toneHoles.getBodyDiam(i) * factor;}
+      public double getToneHoleBodyToTop(int i) {return section.toneHoles.getBodyToTop(i) * factor;}
+
+      /** Get the x coordinates of all the tone holes. */
+      public double[] getToneHoleXCoords() {return scale(section.toneHoles.getXCoords(), factor);}
+
+      /** Get the diameters of all the tone holes. */
+      public double[] getToneHoleDiams() {return scale(section.toneHoles.getDiams(), factor);}
+
+      public int getNumBorePoints() {return section.boreCurve.getNumPoints();}
+
+      public double getBoreX(int i) {return section.boreCurve.getX(i) * factor;}
+      public double getBoreY(int i) {return section.boreCurve.getY(i) * factor;}
+
+      public double[] getBoreXValues() {return getXValues(section.boreCurve, factor);}
+      public double[] getBoreYValues() {return getYValues(section.boreCurve, factor);}
+
+      /** Get the bore as {x values, y values}, e.g. for a chart series. */
+      public double[][] getBoreXYValues() {
+         return new double[][] {getBoreXValues(), getBoreYValues()};
+      }
+
+      public int getNumBodyPoints() {return section.bodyCurve.getNumPoints();}
+
+      public double getBodyX(int i) {return section.bodyCurve.getX(i) * factor;}
+      public double getBodyY(int i) {return section.bodyCurve.getY(i) * factor;}
+
+      public double[] getBodyXValues() {return getXValues(section.bodyCurve, factor);}
+      public double[] getBodyYValues() {return getYValues(section.bodyCurve, factor);}
+
+      /** Get the body as {x values, y values}, e.g. for a chart series. */
+      public double[][] getBodyXYValues() {
+         return new double[][] {getBodyXValues(), getBodyYValues()};
+      }
+   }
+
+   private static double[] getXValues(ProfileCurve curve, double factor) {
+      double[] values = new double[curve.getNumPoints()];
+      for(int i = 0; i < values.length; i++)
+         values[i] = curve.getX(i) * factor;
+      return values;
+   }
+
+   private static double[] getYValues(ProfileCurve curve, double factor) {
+      double[] values = new double[curve.getNumPoints()];
+      for(int i = 0; i < values.length; i++)
+         values[i] = curve.getY(i) * factor;
+      return values;
+   }
+
+   // scale a private copy in place
+   private static double[] scale(double[] values, double factor) {
+      if(factor != 1.)
+         for(int i = 0; i < values.length; i++)
+            values[i] *= factor;
+      return values;
+   }
+}
@@ -0,0 +1,330 @@
+package forbesflutes.wml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import forbesflutes.wml.WMLData.Joint.TenonDirection;
+import forbesflutes.wml.WMLData.Units;
+
+/** A binary "sidecar" form of WMLData (.wmlb) that loads without any text parsing.
+ *  A sidecar records the length and CRC32 checksum of the .wml file it was made from,
+ *  so one that no longer matches its source is ignored. Profiles are stored as packed
+ *  doubles, so nothing is lost and they are read back with bulk array reads.
+ *
+ *  Layout (big-endian): magic, version, source length, source checksum, header fields,
+ *  then each part with its sections. Strings are a byte count (-1 for null) followed by
+ *  UTF-8 bytes; optional objects are preceded by a presence byte. */
+public class WMLBinary {
+   public static final String EXTENSION = ".wmlb";
+   private static final int MAGIC = 0x574d4c42;  // "WMLB"
+   private static final int VERSION = 3;
+
+   /** The sidecar path for a .wml file: the same path with the extension replaced. */
+   public static String getSidecarPath(String sourcePath) {
+      int dotIndex = sourcePath.lastIndexOf('.');
+      int slashIndex = Math.max(sourcePath.lastIndexOf('/'), sourcePath.lastIndexOf('\\'));
+      String base = dotIndex > slashIndex ? sourcePath.substring(0, dotIndex) : sourcePath;
+      return base + EXTENSION;
+   }
+
+   /** Load a .wml file, from its sidecar if there is an up-to-date one, otherwise by parsing it
+    *  (through the shared WMLParseCache, so the result may be shared and must not be changed).
+    *  If writeSidecar is set and the file had to be parsed, a sidecar is written for next time;
+    *  failing to write one (e.g. in a read-only folder) doesn't fail the load. The file is read
+    *  once, so the checksum that is checked or recorded is of the very bytes that are parsed,
+    *  even if the file is being changed meanwhile. */
+   public static WMLParser.ParseResult load(String sourcePath, boolean writeSidecar) throws IOException {
+      String sidecarPath = getSidecarPath(sourcePath);
+      ByteBuffer source = readFile(sourcePath);
+      WMLData data = read(sidecarPath, source);
+      if(data != null) {
+         data.filepath = sourcePath;
+         return new WMLParser.ParseResult(data, new WMLDiagnostics(), true);
+      }
+      WMLParser.ParseResult result = WMLParseCache.getShared().parseTextFile(sourcePath,
+         new MappedCharSequence(source.duplicate()));
+      if(result.isValid && writeSidecar) {
+         try {
+            write(result.data, source, sidecarPath);
+         } catch(IOException e) {
+            // the sidecar only saves parsing next time
+         }
+      }
+      return result;
+   }
+
+   /** Write data parsed from the current contents of sourcePath to a sidecar file. If the
+    *  file may have changed since it was parsed, use load instead, which writes the sidecar
+    *  from the bytes it parsed. */
+   public static void write(WMLData data, String sourcePath, String sidecarPath) throws IOException {
+      write(data, readFile(sourcePath), sidecarPath);
+   }
+
+   // write a sidecar for data parsed from the source bytes
+   private static void write(WMLData data, ByteBuffer source, String sidecarPath) throws IOException {
+      ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(byteStream);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(source.limit());
+      out.writeLong(checksum(source));
+      writeData(data, out);
+      out.close();
+      // write a temporary file and move it into place, so an interrupted write can't leave
+      // a partial sidecar, and a reader never sees one
+      Path target = Path.of(sidecarPath).toAbsolutePath();
+      Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+      try {
+         try(OutputStream fileOut = new FileOutputStream(temp.toFile())) {
+            byteStream.writeTo(fileOut);
+         }
+         try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         } catch(AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /** Read a sidecar file. Returns null if it doesn't exist, is from a different version,
+    *  doesn't match the current contents of sourcePath, or is truncated or corrupt. */
+   public static WMLData read(String sidecarPath, String sourcePath) throws IOException {
+      if(!Files.exists(Path.of(sourcePath)))
+         return null;
+      WMLData data = read(sidecarPath, readFile(sourcePath));
+      if(data != null)
+         data.filepath = sourcePath;
+      return data;
+   }
+
+   // read a sidecar, if it matches the source bytes
+   private static WMLData read(String sidecarPath, ByteBuffer source) throws IOException {
+      if(!Files.exists(Path.of(sidecarPath)))
+         return null;
+      ByteBuffer in = mapFile(sidecarPath);
+      if(in.limit() < 24 || in.getInt() != MAGIC || in.getInt() != VERSION)
+         return null;
+      long sourceLength = in.getLong();
+      long sourceChecksum = in.getLong();
+      if(source.limit() != sourceLength || checksum(source) != sourceChecksum)
+         return null;
+      try {
+         return readData(in);
+      } catch(RuntimeException e) {
+         // truncated or corrupt (e.g. BufferUnderflowException, a bad count or enum
+         // ordinal); the source will be parsed instead
+         return null;
+      }
+   }
+
+   // Read a whole file onto the heap. Unlike a mapping, the copy can't change under a
+   // reader while the file is being written.
+   private static ByteBuffer readFile(String filePath) throws IOException {
+      return ByteBuffer.wrap(Files.readAllBytes(Path.of(filePath)));
+   }
+
+   private static ByteBuffer mapFile(String filePath) throws IOException {
+      try(FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         return buffer;
+      }
+   }
+
+   private static long checksum(ByteBuffer buffer) {
+      CRC32 crc = new CRC32();
+      crc.update(buffer.duplicate());
+      return crc.getValue();
+   }
+
+   // Writing:
+
+   private static void writeData(WMLData data, DataOutputStream out) throws IOException {
+      writeString(data.id, out);
+      writeString(data.name, out);
+      writeString(data.type, out);
+      writeString(data.subType, out);
+      writeString(data.owner, out);
+      writeString(data.maker, out);
+      writeString(data.serial, out);
+      writeString(data.submittedBy, out);
+      writeString(data.measuredBy, out);
+      writeString(data.url, out);
+      writeString(data.comments, out);
+      out.writeDouble(data.pitchStandard);
+      writeString(data.keyOf, out);
+      out.writeByte(data.units == null ? -1 : data.units.ordinal());
+      out.writeInt(data.parts.size());
+      for(WMLData.Part part: data.parts) {
+         writeString(part.name, out);
+         writeString(part.noteRangeStart, out);
+         writeString(part.noteRangeEnd, out);
+         out.writeInt(part.sections.size());
+         for(WMLData.Section section: part.sections)
+            writeSection(section, out);
+      }
+   }
+
+   private static void writeSection(WMLData.Section section, DataOutputStream out) throws IOException {
+      writeString(section.name, out);
+      out.writeDouble(section.length);
+      out.writeBoolean(section.blowHole != null);
+      if(section.blowHole != null) {
+         WMLData.BlowHole blowHole = section.blowHole;
+         out.writeDouble(blowHole.xCoord);
+         out.writeDouble(blowHole.length);
+         out.writeDouble(blowHole.width);
+         out.writeDouble(blowHole.bodyDiam);
+         out.writeDouble(blowHole.corkDist);
+      }
+      out.writeBoolean(section.topJoint != null);
+      if(section.topJoint != null) {
+         WMLData.Joint joint = section.topJoint;
+         out.writeByte(joint.tenonDirection.ordinal());
+         out.writeDouble(joint.tenonLength);
+         out.writeDouble(joint.tenonDiam);
+         out.writeDouble(joint.extension);
+      }
+      ToneHoleTable toneHoles = section.toneHoles;
+      out.writeInt(toneHoles.size());
+      for(int i = 0; i < toneHoles.size(); i++) {
+         out.writeDouble(toneHoles.getXCoord(i));
+         out.writeDouble(toneHoles.getDiam(i));
+         out.writeDouble(toneHoles.getBodyDiam(i));
+         out.writeDouble(toneHoles.getBodyToTop(i));
+         out.writeDouble(toneHoles.getAngle(i));
+      }
+      writeCurve(section.boreCurve, out);
+      writeCurve(section.bodyCurve, out);
+      out.writeInt(section.altSections.size());
+      for(WMLData.Section altSection: section.altSections)
+         writeSection(altSection, out);
+   }
+
+   private static void writeCurve(ProfileCurve curve, DataOutputStream out) throws IOException {
+      out.writeBoolean(curve != null);
+      if(curve == null) return;
+      double[] xValues = curve.getXValues();
+      double[] yValues = curve.getYValues();
+      out.writeInt(xValues.length);
+      for(double x: xValues)
+         out.writeDouble(x);
+      for(double y: yValues)
+         out.writeDouble(y);
+   }
+
+   private static void writeString(String str, DataOutputStream out) throws IOException {
+      if(str == null) {
+         out.writeInt(-1);
+         return;
+      }
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   // Reading:
+
+   private static WMLData readData(ByteBuffer in) {
+      WMLData data = new WMLData();
+      data.id = readString(in);
+      data.name = readString(in);
+      data.type = readString(in);
+      data.subType = readString(in);
+      data.owner = readString(in);
+      data.maker = readString(in);
+      data.serial = readString(in);
+      data.submittedBy = readString(in);
+      data.measuredBy = readString(in);
+      data.url = readString(in);
+      data.comments = readString(in);
+      data.pitchStandard = in.getDouble();
+      data.keyOf = readString(in);
+      int unitsOrdinal = in.get();
+      data.units = unitsOrdinal < 0 ? null : Units.values()[unitsOrdinal];
+      int numParts = in.getInt();
+      for(int i = 0; i < numParts; i++) {
+         WMLData.Part part = new WMLData.Part();
+         part.name = readString(in);
+         part.noteRangeStart = readString(in);
+         part.noteRangeEnd = readString(in);
+         int numSections = in.getInt();
+         for(int j = 0; j < numSections; j++)
+            part.sections.add(readSection(in));
+         part.endPart();
+         data.parts.add(part);
+      }
+      return data;
+   }
+
+   private static WMLData.Section readSection(ByteBuffer in) {
+      WMLData.Section section = new WMLData.Section();
+      section.name = readString(in);
+      section.length = in.getDouble();
+      if(in.get() != 0)
+         section.blowHole = new WMLData.BlowHole(in.getDouble(), in.getDouble(), in.getDouble(),
+            in.getDouble(), in.getDouble());
+      if(in.get() != 0) {
+         WMLData.Joint joint = new WMLData.Joint();
+         joint.tenonDirection = TenonDirection.values()[in.get()];
+         joint.tenonLength = in.getDouble();
+         joint.tenonDiam = in.getDouble();
+         joint.extension = in.getDouble();
+         section.topJoint = joint;
+      }
+      int numToneHoles = in.getInt();
+      for(int i = 0; i < numToneHoles; i++)
+         section.toneHoles.add(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(),
+            in.getDouble());
+      section.boreCurve = readCurve(in);
+      section.bodyCurve = readCurve(in);
+      int numAltSections = in.getInt();
+      for(int i = 0; i < numAltSections; i++)
+         section.altSections.add(readSection(in));
+      return section;
+   }
+
+   private static ProfileCurve readCurve(ByteBuffer in) {
+      if(in.get() == 0) return null;
+      int numPoints = in.getInt();
+      double[] xValues = readDoubles(in, numPoints);
+      double[] yValues = readDoubles(in, numPoints);
+      return new ProfileCurve(xValues, yValues);
+   }
+
+   /** Bulk-read an array of doubles. */
+   private static double[] readDoubles(ByteBuffer in, int count) {
+      // check a corrupt count before allocating for it
+      if(count > in.remaining() / Double.BYTES)
+         throw new BufferUnderflowException();
+      double[] values = new double[count];
+      in.asDoubleBuffer().get(values);
+      in.position(in.position() + count * Double.BYTES);
+      return values;
+   }
+
+   private static String readString(ByteBuffer in) {
+      int length = in.getInt();
+      if(length < 0) return null;
+      if(length > in.remaining())
+         throw new BufferUnderflowException();
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
@@ -12,7 +12,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
-import forbesflutes.boreptb.core.XYCurve;
 import forbesflutes.wml.WMLData.Joint.TenonDirection;
 
 /** Data associated with Woodwind Measurement Language (.wml) files. */
@@ -40,14 +39,108 @@ public class WMLData implements java.lang.Cloneable {
    public String keyOf;       // nullable
    public Units units; // required
    public List<Part> parts = new ArrayList<Part>();
+   
+   // Incremented by modified(). Fingerprints are cached with the version they were made at
+   // (see CachedFingerprint), which for a parent includes its children's versions, so a
+   // change to a child is seen by its parents and by nothing else.
+   private volatile long version = 0;
+   private volatile CachedFingerprint cachedFingerprint;
+
+   /** The file this data was parsed from; null if it was parsed from in-memory text. */
+   public String getFilepath() {
+      return filepath;
+   }
 
-   /* Convert measurements to the given unit. */
+   /* Convert measurements to the given unit, in place. Files are converted as text by
+    * WMLParser.convertUnits, and the UI reads data in other units through UnitView, so
+    * this is for code that needs converted data of its own. */
    public void convertUnits(Units newUnits) {
       if(newUnits.equals(units)) return;
       double factor = newUnits.equals(Units.MM) ? mmPerInch : inchesPerMM;
       for(Part part: parts)
          part.convertUnits(factor);     
       units = newUnits;
+      modified();
+   }
+   
+   /** Get a 64-bit fingerprint of the contents (everything but the file path). Equal data
+    *  has equal fingerprints, in every run, and different data almost certainly doesn't. 
+    *  It is cached, so after assigning a field of the data, or of one of its parts,
+    *  sections, blow holes or joints, call modified() on the data, part or section it
+    *  belongs to. Changes made through ToneHoleTable and ProfileCurve methods, and to the
+    *  lists of parts, sections and alternate sections, are noticed without this. */
+   public long getFingerprint() {
+      long version = getVersion();
+      CachedFingerprint cached = cachedFingerprint;
+      if(cached == null || !cached.isValid(version, parts)) {
+         cached = new CachedFingerprint(computeFingerprint(true), version, parts);
+         cachedFingerprint = cached;
+      }
+      return cached.fingerprint;
+   }
+
+   // the fingerprint, using the parts' cached fingerprints or not
+   private long computeFingerprint(boolean useCache) {
+      long hash = WMLUtil.FINGERPRINT_SEED;
+      hash = WMLUtil.fingerprint(hash, id);
+      hash = WMLUtil.fingerprint(hash, name);
+      hash = WMLUtil.fingerprint(hash, type);
+      hash = WMLUtil.fingerprint(hash, subType);
+      hash = WMLUtil.fingerprint(hash, owner);
+      hash = WMLUtil.fingerprint(hash, maker);
+      hash = WMLUtil.fingerprint(hash, serial);
+      hash = WMLUtil.fingerprint(hash, submittedBy);
+      hash = WMLUtil.fingerprint(hash, measuredBy);
+      hash = WMLUtil.fingerprint(hash, url);
+      hash = WMLUtil.fingerprint(hash, comments);
+      hash = WMLUtil.fingerprint(hash, pitchStandard);
+      hash = WMLUtil.fingerprint(hash, keyOf);
+      hash = WMLUtil.fingerprint(hash, units == null ? null : units.name());
+      hash = WMLUtil.fingerprint(hash, (long) parts.size());
+      for(Part part: parts)
+         hash = WMLUtil.fingerprint(hash, useCache ? part.getFingerprint() : part.computeFingerprint(false));
+      return hash;
+   }
+   
+   /** Note that fields of this object have been changed (see getFingerprint). */
+   public void modified() {
+      ++version;
+   }
+
+   // this object's version plus its parts'
+   private long getVersion() {
+      long sum = version;
+      for(Part part: parts)
+         sum += part.getVersion();
+      return sum;
+   }
+
+   /** A fingerprint with what it was made from: the version of an object (the sum of its
+    *  own and its children's modification counts, which only ever grow) and its children.
+    *  It's out of date if the version has changed or the children have been replaced.
+    *  Children are compared by identity, so a copy, whose children are new, can't match
+    *  its original's fingerprint even when their versions happen to add up the same.
+    *  Immutable, so it can be published to other threads through a volatile field and
+    *  data that isn't changing can be read from several threads at once (see
+    *  PartProcessor). */
+   private static final class CachedFingerprint {
+      final long fingerprint;
+      final long version;
+      private final Object[] children;
+
+      CachedFingerprint(long fingerprint, long version, List<?> children) {
+         this.fingerprint = fingerprint;
+         this.version = version;
+         this.children = children.toArray();
+      }
+
+      boolean isValid(long version, List<?> children) {
+         if(version != this.version || children.size() != this.children.length) return false;
+         for(int i = 0; i < this.children.length; i++) {
+            if(children.get(i) != this.children[i]) return false;
+         }
+         return true;
+      }
    }
 
 
@@ -58,15 +151,32 @@ public class WMLData implements java.lang.Cloneable {
       try {
          copy = (WMLData) this.clone();
       } catch (CloneNotSupportedException e) {}
+      copy.resetFingerprint();
       // now deep copy any mutable objects:
-      List<Part> oldParts = parts;
-      parts = new ArrayList<Part>();
-      for(Part oldPart: oldParts)
-         parts.add(oldPart.copy());
+      copy.parts = new ArrayList<Part>();
+      for(Part oldPart: parts)
+         copy.parts.add(oldPart.copy());
+      return copy;
+   }
+   
+   /** Make a copy with its own list of parts, sharing the Part objects. */
+   WMLData shallowCopy() {
+      WMLData copy = null;
+      try {
+         copy = (WMLData) this.clone();
+      } catch (CloneNotSupportedException e) {}
+      copy.resetFingerprint();
+      copy.parts = new ArrayList<Part>(parts);
       return copy;
    }
+
+   // for a clone, which mustn't keep its original's cache
+   private void resetFingerprint() {
+      version = 0;
+      cachedFingerprint = null;
+   }
    
-   private static void exportXYCurve(XYCurve curve, Units units, PrintWriter out) {
+   private static void exportCurve(ProfileCurve curve, Units units, PrintWriter out) {
       int numPoints = curve.getNumPoints();
       for(int i = 0; i < numPoints; i++) {
          out.printf("%s\t%s\n", 
@@ -82,7 +192,25 @@ public class WMLData implements java.lang.Cloneable {
    
    @Override
    public boolean equals(Object o) {
-      return WMLUtil.equals(this, o);
+      if(this == o) return true;
+      if(!(o instanceof WMLData)) return false;
+      WMLData other = (WMLData) o;
+      return Objects.equals(id, other.id) && Objects.equals(name, other.name)
+         && Objects.equals(type, other.type) && Objects.equals(subType, other.subType)
+         && Objects.equals(owner, other.owner) && Objects.equals(maker, other.maker)
+         && Objects.equals(serial, other.serial) && Objects.equals(submittedBy, other.submittedBy)
+         && Objects.equals(measuredBy, other.measuredBy) && Objects.equals(url, other.url)
+         && Objects.equals(comments, other.comments) 
+         && Double.compare(pitchStandard, other.pitchStandard) == 0
+         && Objects.equals(keyOf, other.keyOf) && units == other.units
+         && parts.equals(other.parts);
+   }
+   
+   /** Computed afresh (not from the cached fingerprint), so it agrees with equals even if
+    *  the data has been changed without a call to modified(). */
+   @Override
+   public int hashCode() {
+      return Long.hashCode(computeFingerprint(false));
    }
 
    /** Export TSV. CAUTION: no comments will appear in the file. */
@@ -112,8 +240,20 @@ public class WMLData implements java.lang.Cloneable {
 
    /** Specification of how to assemble the sections. */
    public static class AssemblyInfo {
-      double[] jointExtensions;  // nullable
-      List<String> altSectionNames;  // nullable
+      // nullable; the extension of the joint below each section, instead of the joint's own
+      public double[] jointExtensions;
+      // nullable; for each section, the name of the alternate section to use instead, or null
+      public List<String> altSectionNames;
+      
+      public AssemblyInfo(double[] jointExtensions, List<String> altSectionNames) {
+         this.jointExtensions = jointExtensions;
+         this.altSectionNames = altSectionNames;
+      }
+      
+      /** Get the name of the alternate section to use at position i, or null for the main one. */
+      public String getAltSectionName(int i) {
+         return altSectionNames == null || i >= altSectionNames.size() ? null : altSectionNames.get(i);
+      }
    }
 
    /** Information about the assembled sections; the section itself and
@@ -123,6 +263,7 @@ public class WMLData implements java.lang.Cloneable {
       public final Section section;
       public final int[] bodySectionBreakIndices;
       public final int[] boreSectionBreakIndices;
+      long partFingerprint;  // of the Part it was made from, when cached by it
       
       public AssembledSectionInfo(Section section, int[] bodySectionBreakIndices,
             int[] boreSectionBreakIndices) {
@@ -141,6 +282,9 @@ public class WMLData implements java.lang.Cloneable {
       public String noteRangeEnd;   // nullable
       
       public List<Section> sections = new ArrayList<Section>();
+      private volatile long version = 0;  // see WMLData.version
+      private volatile CachedFingerprint cachedFingerprint;
+      private volatile AssembledSectionInfo assembledInfo;  // see getAssembledSection
       
       /* Multiply measurements by the given factor. */
       private void convertUnits(double factor) {
@@ -148,6 +292,41 @@ public class WMLData implements java.lang.Cloneable {
             section.convertUnits(factor);
       }
       
+      /** Get a 64-bit fingerprint of the contents; see WMLData.getFingerprint. */
+      public long getFingerprint() {
+         long version = getVersion();
+         CachedFingerprint cached = cachedFingerprint;
+         if(cached == null || !cached.isValid(version, sections)) {
+            cached = new CachedFingerprint(computeFingerprint(true), version, sections);
+            cachedFingerprint = cached;
+         }
+         return cached.fingerprint;
+      }
+
+      private long computeFingerprint(boolean useCache) {
+         long hash = WMLUtil.FINGERPRINT_SEED;
+         hash = WMLUtil.fingerprint(hash, name);
+         hash = WMLUtil.fingerprint(hash, noteRangeStart);
+         hash = WMLUtil.fingerprint(hash, noteRangeEnd);
+         hash = WMLUtil.fingerprint(hash, (long) sections.size());
+         for(Section section: sections)
+            hash = WMLUtil.fingerprint(hash, useCache ? section.getFingerprint() : section.computeFingerprint(false));
+         return hash;
+      }
+      
+      /** Note that fields of this object (e.g. name) have been changed. Replacing, adding
+       *  or removing sections is noticed without this. */
+      public void modified() {
+         ++version;
+      }
+
+      private long getVersion() {
+         long sum = version;
+         for(Section section: sections)
+            sum += section.getVersion();
+         return sum;
+      }
+      
       private void exportTSV(PrintWriter out, Units units) {
          out.printf("%s\t%s\n", WMLParser.part, name);         
          for(Section section: sections)
@@ -159,7 +338,8 @@ public class WMLData implements java.lang.Cloneable {
          stitchSectionJoints();
       }
             
-      // make each section's top joint the preceding one's bottom joint
+      // make each section's top joint the preceding one's bottom joint; alternate sections
+      // have the same joints as the section they can replace
       public void stitchSectionJoints() {
          Section prevSection = null;
          for(Section section: sections) {
@@ -167,6 +347,12 @@ public class WMLData implements java.lang.Cloneable {
                prevSection.bottomJoint = section.topJoint;
             prevSection = section;
          }         
+         for(Section section: sections) {
+            for(Section altSection: section.altSections) {
+               altSection.topJoint = section.topJoint;
+               altSection.bottomJoint = section.bottomJoint;
+            }
+         }
       }
       
       /** Return a deep copy of this object. */
@@ -176,6 +362,7 @@ public class WMLData implements java.lang.Cloneable {
          try {
             copy = (Part) this.clone();
          } catch (CloneNotSupportedException e) {}
+         copy.resetCaches();
          // now deep copy any mutable objects:
          List<Section> oldSections = sections;
          copy.sections = new ArrayList<Section>();
@@ -185,99 +372,66 @@ public class WMLData implements java.lang.Cloneable {
          return copy;
       }
       
+      /** Make a copy with its own list of sections, sharing the Section objects. */
+      Part shallowCopy() {
+         Part copy = null;
+         try {
+            copy = (Part) this.clone();
+         } catch (CloneNotSupportedException e) {}
+         copy.resetCaches();
+         copy.sections = new ArrayList<Section>(sections);
+         return copy;
+      }
+
+      // for a clone, which mustn't keep its original's caches; in particular the assembled
+      // section, whose sections are the original's, not the clone's
+      private void resetCaches() {
+         version = 0;
+         cachedFingerprint = null;
+         assembledInfo = null;
+      }
+      
       @Override
       public boolean equals(Object o) {
-         return WMLUtil.equals(this, o);
+         if(this == o) return true;
+         if(!(o instanceof Part)) return false;
+         Part other = (Part) o;
+         return Objects.equals(name, other.name) 
+            && Objects.equals(noteRangeStart, other.noteRangeStart)
+            && Objects.equals(noteRangeEnd, other.noteRangeEnd)
+            && sections.equals(other.sections);
+      }
+      
+      /** Computed afresh; see WMLData.hashCode. */
+      @Override
+      public int hashCode() {
+         return Long.hashCode(computeFingerprint(false));
+      }
+
+      /** Get the assembled section, as createAssembledSection makes it. It is made the first
+       *  time it's asked for and then kept until the part's fingerprint changes (see
+       *  WMLData.getFingerprint), so the same object is returned to every caller: don't
+       *  change it. */
+      public AssembledSectionInfo getAssembledSection() {
+         long partFingerprint = getFingerprint();
+         AssembledSectionInfo info = assembledInfo;
+         if(info == null || info.partFingerprint != partFingerprint) {
+            info = createAssembledSection();
+            info.partFingerprint = partFingerprint;
+            assembledInfo = info;
+         }
+         return info;
       }
 
       /** Make a section (and associated info) representing an assembled Part. */
       public AssembledSectionInfo createAssembledSection() {
-         List<Double> assBoreXCoords = new ArrayList<Double>();
-         List<Double> assBoreDiams = new ArrayList<Double>();
-         List<Double> assBodyXCoords = new ArrayList<Double>();
-         List<Double> assBodyDiams = new ArrayList<Double>();
-         List<Integer> boreSectionBreakIndices = new ArrayList<Integer>();
-         List<Integer> bodySectionBreakIndices = new ArrayList<Integer>();
-         Section assSection = new Section();
-         assSection.name = "Assembled";
-         double sectionStartX = 0.;  // cumulative start of next section; joints considered
-         boolean isFirstSection = true;
-         for(Section section: sections) {
-            // tone holes:
-            for(ToneHole toneHole: section.toneHoles) {
-               ToneHole assToneHole = toneHole.copy();
-               assToneHole.xCoord = toneHole.xCoord + sectionStartX;
-               assSection.toneHoles.add(assToneHole);
-            }
-            double boreCoordOffset = 0.;
-            
-            // If section has a top socket, correct for bore measurement offset:
-            if(section.hasTopSocket()) 
-               boreCoordOffset = -section.topJoint.tenonLength;
-            
-            // bore/body breaks
-            if(!isFirstSection) {
-               boreSectionBreakIndices.add(assBoreDiams.size() - 1);
-               bodySectionBreakIndices.add(assBodyDiams.size() - 1);
-            }
-            // bore
-            for(double d: section.boreCurve.getYValues())
-               assBoreDiams.add(d);
-            addProfileCoords(section.boreCurve.getXValues(), sectionStartX, boreCoordOffset, 
-                assBoreXCoords, assBoreDiams);
-            // body
-            for(double d: section.bodyCurve.getYValues())
-               assBodyDiams.add(d);
-            addProfileCoords(section.bodyCurve.getXValues(), sectionStartX, boreCoordOffset, 
-                assBodyXCoords, assBodyDiams);
-            sectionStartX += section.length;
-            if(section.bottomJoint != null) {
-               // section coords start at socket root
-               sectionStartX -= section.bottomJoint.tenonLength;
-            }
-            
-            if(section.bottomJoint != null && section.bottomJoint.extension > 0.) {
-               double extension = section.bottomJoint.extension;
-               double tenonLength = section.bottomJoint.tenonLength;
-               double tenonDiam = section.bottomJoint.tenonDiam;
-               TenonDirection tenonDirection = section.bottomJoint.tenonDirection;
-               double bodyExtensionStart = (tenonDirection == TenonDirection.UP) ?
-                  sectionStartX + tenonLength: 
-                  sectionStartX;
-               assBodyXCoords.add(bodyExtensionStart);
-               assBodyDiams.add(tenonDiam);
-               assBodyXCoords.add(bodyExtensionStart + extension);
-               assBodyDiams.add(tenonDiam);
-               double boreExtensionStart = (tenonDirection == TenonDirection.UP) ?
-                     sectionStartX: 
-                     sectionStartX + tenonLength;
-               assBoreXCoords.add(boreExtensionStart);
-               assBoreDiams.add(tenonDiam);
-               assBoreXCoords.add(boreExtensionStart + extension);
-               assBoreDiams.add(tenonDiam);
-               sectionStartX += extension;
-            }
-            isFirstSection = false;
-         }
-         double[] boreXCoords = WMLUtil.toDoubleArray(assBoreXCoords);
-         double[] boreDiams = WMLUtil.toDoubleArray(assBoreDiams);
-         assSection.boreCurve = new XYCurve(boreXCoords, boreDiams);
-         double[] bodyXCoords = WMLUtil.toDoubleArray(assBodyXCoords);
-         double[] bodyDiams = WMLUtil.toDoubleArray(assBodyDiams);
-         assSection.bodyCurve = new XYCurve(bodyXCoords, bodyDiams);
-         assSection.length = sectionStartX;
-         assSection.blowHole = sections.get(0).blowHole;
-         // return new AssembledPartData(profile, WMLData.toArray(toneHoleCoords), WMLData.toArray(sectionBreakCoords));
-         return new AssembledSectionInfo(assSection, WMLUtil.toIntArray(bodySectionBreakIndices), 
-               WMLUtil.toIntArray(boreSectionBreakIndices));
-      }
-
-      private void addProfileCoords(double[] sectionXCoords, double sectionStartX,
-          double coordOffset, List<Double> assBoreXCoords, List<Double> assBoreYCoords) {
-          for(int i = 0; i < sectionXCoords.length; i++) {
-            double x = sectionStartX + sectionXCoords[i] + coordOffset;
-            assBoreXCoords.add(x);
-         }
+         return SectionAssembler.assemble(this, null);
+      }
+
+      /** Make an assembled section using the alternate sections and joint extensions
+       *  given by info (see SectionAssembler for assembling every combination). */
+      public AssembledSectionInfo createAssembledSection(AssemblyInfo info) {
+         return SectionAssembler.assemble(this, info);
       }
    }
    
@@ -306,9 +460,28 @@ public class WMLData implements java.lang.Cloneable {
          extension *= factor;
       }
       
+      /** Mix this joint into a fingerprint. */
+      long fingerprint(long hash) {
+         hash = WMLUtil.fingerprint(hash, tenonDirection == null ? null : tenonDirection.name());
+         hash = WMLUtil.fingerprint(hash, tenonLength);
+         hash = WMLUtil.fingerprint(hash, tenonDiam);
+         return WMLUtil.fingerprint(hash, extension);
+      }
+      
       @Override
       public boolean equals(Object o) {
-         return WMLUtil.equals(this, o);
+         if(this == o) return true;
+         if(!(o instanceof Joint)) return false;
+         Joint other = (Joint) o;
+         return tenonDirection == other.tenonDirection
+            && Double.compare(tenonLength, other.tenonLength) == 0
+            && Double.compare(tenonDiam, other.tenonDiam) == 0
+            && Double.compare(extension, other.extension) == 0;
+      }
+      
+      @Override
+      public int hashCode() {
+         return Long.hashCode(fingerprint(WMLUtil.FINGERPRINT_SEED));
       }
 
       private void exportTSV(PrintWriter out, Units units) {
@@ -327,11 +500,15 @@ public class WMLData implements java.lang.Cloneable {
       public String name; // nullable
       public double length;
       public BlowHole blowHole; // nullable
-      public List<ToneHole> toneHoles = new ArrayList<ToneHole>();
-      public XYCurve bodyCurve;
-      public XYCurve boreCurve;
+      public ToneHoleTable toneHoles = new ToneHoleTable();
+      public ProfileCurve bodyCurve;
+      public ProfileCurve boreCurve;
       public Joint topJoint; // nullable
       public Joint bottomJoint; // nullable
+      // sections that can replace this one (e.g. corps de rechange); they share its joints
+      public List<Section> altSections = new ArrayList<Section>();
+      private volatile long version = 0;  // see WMLData.version
+      private volatile CachedFingerprint cachedFingerprint;
 
       private double getMax(double[] array) {
          double max = Double.MIN_VALUE;
@@ -366,49 +543,150 @@ public class WMLData implements java.lang.Cloneable {
 
       /** Calculate tone hole depth as best we can, otherwise return 0. */
       public double getToneHoleDepth(int i) {
-         if(boreCurve != null) return 0.; // can't do anything without the bore diam
-         ToneHole toneHole = toneHoles.get(i);
+         if(boreCurve == null) return 0.; // can't do anything without the bore diam
+         double xCoord = toneHoles.getXCoord(i);
          double bodyDiam;
-         if(toneHole.bodyDiam != 0.)
-            bodyDiam = toneHole.bodyDiam;         
+         if(toneHoles.getBodyDiam(i) != 0.)
+            bodyDiam = toneHoles.getBodyDiam(i);         
          else if(bodyCurve != null)  // if no measured body OD @ tone hole, interpolated it
-            bodyDiam = bodyCurve.interpolateY(toneHole.xCoord);
+            bodyDiam = bodyCurve.interpolateY(xCoord);
          else
             return 0.;       
-         double boreDiam = boreCurve.interpolateY(toneHole.xCoord);
+         double boreDiam = boreCurve.interpolateY(xCoord);
          return bodyDiam - boreDiam;
       }
 
       /* Multiply measurements by the given factor. */
       private void convertUnits(double factor) {
-         if(blowHole != null) 
-            blowHole.convertUnits(factor);
          if(topJoint != null) 
             topJoint.convertUnits(factor);
+         convertOwnUnits(factor);
+      }
+
+      /* As convertUnits, but leaving the joints, which a section shares with its neighbours
+       * and alternates (see Part.stitchSectionJoints) and which only the main section's
+       * top joint scales. */
+      private void convertOwnUnits(double factor) {
+         if(blowHole != null) 
+            blowHole.convertUnits(factor);
          length *= factor;
          boreCurve.scale(factor);
          bodyCurve.scale(factor);
-         for(ToneHole toneHole: toneHoles)
-            toneHole.convertUnits(factor);
+         toneHoles.scale(factor);
+         for(Section altSection: altSections)
+            altSection.convertOwnUnits(factor);
+         modified();
+      }
+      
+      /** Get a 64-bit fingerprint of the contents; see WMLData.getFingerprint. The bottom
+       *  joint isn't included, since it is the next section's top joint. */
+      public long getFingerprint() {
+         long version = getVersion();
+         CachedFingerprint cached = cachedFingerprint;
+         List<Object> children = getChildren();
+         if(cached == null || !cached.isValid(version, children)) {
+            cached = new CachedFingerprint(computeFingerprint(true), version, children);
+            cachedFingerprint = cached;
+         }
+         return cached.fingerprint;
+      }
+
+      // the objects whose modification counts getVersion adds up, so that replacing one
+      // (e.g. with a copy, whose count starts again) invalidates the cached fingerprint
+      private List<Object> getChildren() {
+         List<Object> children = new ArrayList<Object>(3 + altSections.size());
+         children.add(toneHoles);
+         children.add(boreCurve);
+         children.add(bodyCurve);
+         children.addAll(altSections);
+         return children;
+      }
+
+      private long computeFingerprint(boolean useCache) {
+         long hash = WMLUtil.FINGERPRINT_SEED;
+         hash = WMLUtil.fingerprint(hash, name);
+         hash = WMLUtil.fingerprint(hash, length);
+         hash = blowHole == null ? WMLUtil.fingerprint(hash, -1L) : blowHole.fingerprint(hash);
+         hash = topJoint == null ? WMLUtil.fingerprint(hash, -1L) : topJoint.fingerprint(hash);
+         hash = toneHoles.fingerprint(hash);
+         hash = WMLUtil.fingerprint(hash, boreCurve);
+         hash = WMLUtil.fingerprint(hash, bodyCurve);
+         hash = WMLUtil.fingerprint(hash, (long) altSections.size());
+         for(Section altSection: altSections)
+            hash = WMLUtil.fingerprint(hash, useCache ? altSection.getFingerprint() : altSection.computeFingerprint(false));
+         return hash;
+      }
+      
+      /** Note that fields of this object (e.g. length, the blow hole or the top joint) have
+       *  been changed. Changes made through the tone hole table's or the curves' methods,
+       *  and to the list of alternate sections, are noticed without this. */
+      public void modified() {
+         ++version;
+      }
+
+      private long getVersion() {
+         long sum = version + toneHoles.getModCount();
+         if(boreCurve != null) sum += boreCurve.getModCount();
+         if(bodyCurve != null) sum += bodyCurve.getModCount();
+         for(Section altSection: altSections)
+            sum += altSection.getVersion();
+         return sum;
       }
       
       @Override
       public boolean equals(Object o) {
-         return WMLUtil.equals(this, o);
+         if(this == o) return true;
+         if(!(o instanceof Section)) return false;
+         Section other = (Section) o;
+         return Objects.equals(name, other.name) 
+            && Double.compare(length, other.length) == 0
+            && Objects.equals(blowHole, other.blowHole)
+            && Objects.equals(topJoint, other.topJoint)
+            && Objects.equals(bottomJoint, other.bottomJoint)
+            && toneHoles.equals(other.toneHoles)
+            && WMLUtil.curvesAreEqual(boreCurve, other.boreCurve)
+            && WMLUtil.curvesAreEqual(bodyCurve, other.bodyCurve)
+            && altSections.equals(other.altSections);
+      }
+      
+      /** Computed afresh; see WMLData.hashCode. */
+      @Override
+      public int hashCode() {
+         return Long.hashCode(computeFingerprint(false));
       }
 
       private void exportTSV(PrintWriter out, Units units) {
+         // a joint record joins the sections either side of it, so the top joint comes first
+         if(topJoint != null) 
+            topJoint.exportTSV(out, units);
          out.printf("%s\t%s\t%s\n", WMLParser.section, name, WMLUtil.formatDouble(length, units));
+         exportRecords(out, units);
+         for(Section altSection: altSections) {
+            out.printf("%s\t%s\t%s\n", WMLParser.altSection, altSection.name, 
+               WMLUtil.formatDouble(altSection.length, units));
+            altSection.exportRecords(out, units);
+         }
+      }
+      
+      // export the records that follow the section record
+      private void exportRecords(PrintWriter out, Units units) {
          if(blowHole != null) 
             blowHole.exportTSV(out, units);
-         if(topJoint != null) 
-            topJoint.exportTSV(out, units);
-         for(ToneHole toneHole: toneHoles)
-            toneHole.exportTSV(out, units);
+         for(int i = 0; i < toneHoles.size(); i++) {
+            out.printf("%s\t%s\t%s\t%s\t%s", WMLParser.toneHole,
+               WMLUtil.formatDouble(toneHoles.getXCoord(i), units),
+               WMLUtil.formatDouble(toneHoles.getDiam(i), units),
+               WMLUtil.formatDouble(toneHoles.getBodyDiam(i), units),
+               WMLUtil.formatDouble(toneHoles.getBodyToTop(i), units));
+            // the angle is in degrees whatever the units, so it's formatted as mm (2 places)
+            if(toneHoles.getAngle(i) != 0.)
+               out.printf("\t%s", WMLUtil.formatDouble(toneHoles.getAngle(i), Units.MM));
+            out.println();
+         }
          out.println(WMLParser.bore);
-         exportXYCurve(boreCurve, units, out);
+         exportCurve(boreCurve, units, out);
          out.println(WMLParser.body);
-         exportXYCurve(bodyCurve, units, out);
+         exportCurve(bodyCurve, units, out);
       }
       
       /** Return a deep copy of this object. */
@@ -418,15 +696,17 @@ public class WMLData implements java.lang.Cloneable {
          try {
             copy = (Section) this.clone();
          } catch (CloneNotSupportedException e) {}
+         copy.version = 0;
+         copy.cachedFingerprint = null;
          // now deep copy any mutable objects:
-         List<ToneHole> oldToneHoles = toneHoles;
-         copy.toneHoles = new ArrayList<ToneHole>();
-         for(ToneHole oldToneHole: oldToneHoles)
-            copy.toneHoles.add(oldToneHole.copy());
+         copy.toneHoles = toneHoles.copy();
          if(topJoint != null)
             copy.topJoint = topJoint.copy();
          copy.bodyCurve = bodyCurve.copy();
          copy.boreCurve = boreCurve.copy();
+         copy.altSections = new ArrayList<Section>();
+         for(Section altSection: altSections)
+            copy.altSections.add(altSection.copy());
          return copy;
       }      
    }
@@ -459,9 +739,30 @@ public class WMLData implements java.lang.Cloneable {
          corkDist *= factor;
       }
       
+      /** Mix this blow hole into a fingerprint. */
+      long fingerprint(long hash) {
+         hash = WMLUtil.fingerprint(hash, xCoord);
+         hash = WMLUtil.fingerprint(hash, length);
+         hash = WMLUtil.fingerprint(hash, width);
+         hash = WMLUtil.fingerprint(hash, bodyDiam);
+         return WMLUtil.fingerprint(hash, corkDist);
+      }
+      
       @Override
       public boolean equals(Object o) {
-         return WMLUtil.equals(this, o);
+         if(this == o) return true;
+         if(!(o instanceof BlowHole)) return false;
+         BlowHole other = (BlowHole) o;
+         return Double.compare(xCoord, other.xCoord) == 0
+            && Double.compare(length, other.length) == 0
+            && Double.compare(width, other.width) == 0
+            && Double.compare(bodyDiam, other.bodyDiam) == 0
+            && Double.compare(corkDist, other.corkDist) == 0;
+      }
+      
+      @Override
+      public int hashCode() {
+         return Long.hashCode(fingerprint(WMLUtil.FINGERPRINT_SEED));
       }
 
       private void exportTSV(PrintWriter out, Units units) {
@@ -485,12 +786,14 @@ public class WMLData implements java.lang.Cloneable {
       }      
    }
 
-   /** A tone hole. */
+   /** A tone hole. Sections store their tone holes in a ToneHoleTable; this holds one 
+    *  hole's values on its own. */
    public static class ToneHole implements java.lang.Cloneable {
       public double xCoord; // location in section; required
       public double diam;  // required
       public double bodyDiam;  // optional
       public double bodyToTop;  // optional. For inset tone holes
+      public double angle;  // optional; clockwise looking down the instrument, in degrees
       
       public ToneHole(double xCoord, double diam, double bodyDiam, double bodyToTop) {
          this.xCoord = xCoord;
@@ -499,22 +802,6 @@ public class WMLData implements java.lang.Cloneable {
          this.bodyToTop = bodyToTop;
       }
 
-      /* Multiply measurements by the given factor. */
-      private void convertUnits(double factor) {
-         xCoord *= factor;
-         diam *= factor;
-         bodyDiam *= factor;
-         bodyToTop *= factor;
-      }
-
-      private void exportTSV(PrintWriter out, Units units) {
-         out.printf("%s\t%s\t%s\t%s\n", WMLParser.toneHole,
-            WMLUtil.formatDouble(xCoord, units),
-            WMLUtil.formatDouble(diam, units),
-            WMLUtil.formatDouble(bodyDiam, units));
-            WMLUtil.formatDouble(bodyToTop, units));
-      }
-      
       /** Return a deep copy of this object. */
       public ToneHole copy() {
          // First make a shallow copy:
@@ -528,9 +815,24 @@ public class WMLData implements java.lang.Cloneable {
       
       @Override
       public boolean equals(Object o) {
-         return WMLUtil.equals(this, o);
+         if(this == o) return true;
+         if(!(o instanceof ToneHole)) return false;
+         ToneHole other = (ToneHole) o;
+         return Double.compare(xCoord, other.xCoord) == 0
+            && Double.compare(diam, other.diam) == 0
+            && Double.compare(bodyDiam, other.bodyDiam) == 0
+            && Double.compare(bodyToTop, other.bodyToTop) == 0
+            && Double.compare(angle, other.angle) == 0;
       }
       
+      @Override
+      public int hashCode() {
+         long hash = WMLUtil.fingerprint(WMLUtil.FINGERPRINT_SEED, xCoord);
+         hash = WMLUtil.fingerprint(hash, diam);
+         hash = WMLUtil.fingerprint(hash, bodyDiam);
+         hash = WMLUtil.fingerprint(hash, bodyToTop);
+         return Long.hashCode(WMLUtil.fingerprint(hash, angle));
+      }
    }
       
    
@@ -0,0 +1,157 @@
+package forbesflutes.wml;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The errors found by a parse. Each is stored as a line, column, code and argument in
+ *  parallel arrays, and only formatted into a message when it is displayed. At most
+ *  getCap() errors are stored; any more are only counted, so a garbage file can't fill
+ *  memory with messages. */
+public class WMLDiagnostics {
+   /** The kinds of error, with the format of their messages (which take the argument). */
+   public enum Code {
+      NUMERIC_OUT_OF_CONTEXT("Numeric line out of context: %s"),
+      UNKNOWN_TAG("Unknown tag %s"),
+      NOTE_NAME_LENGTH("Note name must be two or three characters, e.g. C4 or Bb5"),
+      ILLEGAL_NOTE("Illegal note: %s"),
+      ILLEGAL_ACCIDENTAL("Illegal accidental: %s"),
+      ILLEGAL_OCTAVE("Illegal octave number: %s"),
+      SECTION_REQUIRED("section must appear before %s"),
+      MISSING_VALUE("Missing value for %s"),
+      ILLEGAL_NUMBER("Illegal floating point format: %s"),
+      NO_VALUE("No value for %s"),
+      NO_JOINT("No joint defined between sections"),
+      UNKNOWN_UNITS("Unknown value for units: %s"),
+      UNKNOWN_TENON_DIRECTION("Unknown tenon direction: %s"),
+      NO_SECTION_FOR_JOINT("No section for joint"),
+      ALT_SECTION_OUT_OF_PLACE("altSection must follow the section it replaces, before any joint"),
+      READ_ERROR("%s"),
+      INTERNAL_ERROR("Internal error: %s");
+
+      public final String format;
+
+      private Code(String format) {
+         this.format = format;
+      }
+
+      /** Format the message for this code with the given argument. */
+      public String formatMessage(String arg) {
+         return String.format(format, arg);
+      }
+   }
+
+   public static final int DEFAULT_CAP = 200;
+   private static final Code[] codeValues = Code.values();
+
+   private final int cap;
+   private int size = 0;        // number stored
+   private int errorCount = 0;  // number found, including any not stored
+   private int[] lineNums = new int[8];
+   private int[] columns = new int[8];
+   private byte[] codes = new byte[8];
+   private String[] args = new String[8];
+
+   public WMLDiagnostics() {
+      this(DEFAULT_CAP);
+   }
+
+   public WMLDiagnostics(int cap) {
+      this.cap = cap;
+   }
+
+   /** Add an error. Column is 1-based, or 0 if unknown; arg may be null. */
+   public void add(int lineNum, int column, Code code, String arg) {
+      ++errorCount;
+      if(size >= cap) return;
+      if(size == lineNums.length) {
+         int newLength = Math.min(cap, 2 * size);
+         lineNums = Arrays.copyOf(lineNums, newLength);
+         columns = Arrays.copyOf(columns, newLength);
+         codes = Arrays.copyOf(codes, newLength);
+         args = Arrays.copyOf(args, newLength);
+      }
+      lineNums[size] = lineNum;
+      columns[size] = column;
+      codes[size] = (byte) code.ordinal();
+      args[size] = arg;
+      ++size;
+   }
+
+   /** Add error i of another set of diagnostics, moving it by lineDelta lines. */
+   public void add(WMLDiagnostics other, int i, int lineDelta) {
+      add(other.lineNums[i] + lineDelta, other.columns[i], other.getCode(i), other.args[i]);
+   }
+
+   /** Remove all errors. */
+   public void clear() {
+      size = errorCount = 0;
+      Arrays.fill(args, null);
+   }
+
+   /** The number of errors stored. */
+   public int size() {return size;}
+
+   /** The number of errors found, including any beyond the cap that weren't stored. */
+   public int getErrorCount() {return errorCount;}
+
+   /** Returns if errors were found that weren't stored. */
+   public boolean isTruncated() {return errorCount > size;}
+
+   public int getCap() {return cap;}
+
+   public int getLineNum(int i) {return lineNums[i];}
+
+   public int getColumn(int i) {return columns[i];}
+
+   public Code getCode(int i) {return codeValues[codes[i]];}
+
+   public String getArg(int i) {return args[i];}
+
+   /** Format error i for display. */
+   public String formatMessage(int i) {
+      String msg = getCode(i).formatMessage(args[i]);
+      if(columns[i] > 0)
+         return String.format("Error on line %d, column %d: %s", lineNums[i], columns[i], msg);
+      return String.format("Error on line %d: %s", lineNums[i], msg);
+   }
+
+   /** Make a copy, e.g. to keep with a parse result. */
+   public WMLDiagnostics copy() {
+      WMLDiagnostics copy = new WMLDiagnostics(cap);
+      copy.size = size;
+      copy.errorCount = errorCount;
+      copy.lineNums = Arrays.copyOf(lineNums, Math.max(size, 1));
+      copy.columns = Arrays.copyOf(columns, Math.max(size, 1));
+      copy.codes = Arrays.copyOf(codes, Math.max(size, 1));
+      copy.args = Arrays.copyOf(args, Math.max(size, 1));
+      return copy;
+   }
+
+   /** Get the messages for display: one per stored error, a note of how many weren't
+    *  stored (if any), and a final pass/fail line. The list is unmodifiable, and is of the
+    *  errors as they are now, so later errors (e.g. from another parse) don't change it.
+    *  Messages are formatted as they are read. */
+   public List<String> getMessages(boolean isValid, boolean wasStopped) {
+      final WMLDiagnostics errors = copy();
+      final String summary = isValid ? "Check succeeded; file is valid."
+         : wasStopped ? String.format("Check stopped after %d errors.", errors.errorCount)
+         : "Check failed; errors were found.";
+      final int numMessages = errors.size + (errors.isTruncated() ? 1 : 0) + 1;
+      return new AbstractList<String>() {
+         @Override
+         public String get(int index) {
+            if(index < 0 || index >= numMessages)
+               throw new IndexOutOfBoundsException("index " + index + ", size " + numMessages);
+            if(index < errors.size) return errors.formatMessage(index);
+            if(index == numMessages - 1) return summary;
+            return String.format("(%d more errors not shown)", errors.errorCount - errors.size);
+         }
+
+         @Override
+         public int size() {
+            return numMessages;
+         }
+      };
+   }
+}
@@ -11,6 +11,13 @@ import forbesflutes.wml.WMLData.Units;
  *  the basic TextFileModel. */
 public class WMLFileModel extends TextFileModel {
    protected WMLParser parser;
+   protected WMLParseCache parseCache = WMLParseCache.getShared();
+   // range of lines changed by the latest edit, if known; used to re-parse incrementally
+   private boolean hasEditRange = false;
+   private int editFirstLine;
+   private int editLastLine;
+   private int editLineDelta;
+   private volatile ImmutableWMLData snapshot;  // of the current data; made when first asked for
    
    public WMLFileModel() {
       parser = new WMLParser();
@@ -24,6 +31,17 @@ public class WMLFileModel extends TextFileModel {
    /** Returns the parsed WML Data; may be null if the parse failed. */
    public WMLData getData() {return parser.getData();}
    
+   /** Returns an immutable snapshot of the parsed data, which other threads can keep 
+    *  using while the text is edited and re-parsed. Returns null if the text isn't valid. */
+   public ImmutableWMLData getSnapshot() {
+      ImmutableWMLData currentSnapshot = snapshot;
+      if(currentSnapshot == null && isValid()) {
+         currentSnapshot = ImmutableWMLData.from(getData());
+         snapshot = currentSnapshot;
+      }
+      return currentSnapshot;
+   }
+   
    /** Get the unit of the file. Returns null if the file is not valid. */
    public Units getUnits() {
       return isValid() ? getData().units : null;
@@ -33,17 +51,41 @@ public class WMLFileModel extends TextFileModel {
    /** Clear the model state. */
    public void reset() {
       parser.reset();
+      snapshot = null;
       super.reset();
    }
 
-   /** Parse the in-memory text. */
+   @Override
+   /** Set the text after an edit of the given lines. If the edit is inside one section,
+    *  only that section is re-parsed. */
+   public void setText(String text, int firstChangedLine, int lastChangedLine) {
+      hasEditRange = !isEmpty();
+      editFirstLine = firstChangedLine;
+      editLastLine = lastChangedLine;
+      editLineDelta = countLines(text) - countLines(this.text);
+      setText(text);
+   }
+
+   /** Parse the in-memory text. If the same text has been parsed before, the cached result
+    *  is used. Otherwise if the latest edit range is known, try an incremental re-parse first. */
    public boolean parse() {
-      try {
-         parser.parse(text);
+      snapshot = null;
+      boolean useEditRange = hasEditRange;
+      hasEditRange = false;
+      WMLParser.ParseResult cachedResult = parseCache.get(text);
+      if(cachedResult != null) {
+         parser.restoreResult(text, cachedResult);
          return parser.dataIsValid();
-      } catch (IOException e) {
-         return false;
       }
+      if(!(useEditRange && parser.reparseSection(text, editFirstLine, editLastLine, editLineDelta))) {
+         try {
+            parser.parse(text);
+         } catch (IOException e) {
+            return false;
+         }
+      }
+      parseCache.put(text, parser.getResult());
+      return parser.dataIsValid();
    }
    
    @Override
@@ -0,0 +1,73 @@
+package forbesflutes.wml;
+
+import forbesflutes.wml.WMLData.Joint.TenonDirection;
+import forbesflutes.wml.WMLData.Units;
+
+/** Receives the records of a WML file as the parser finds them, in file order (like a SAX
+ *  handler for XML). Use this with WMLParser.parseText(text, handler) when only some of the
+ *  information is needed and the full WMLData tree isn't; WMLTreeBuilder is the handler
+ *  that builds the tree. All methods do nothing by default, so a handler only needs to
+ *  implement the ones it cares about.
+ *
+ *  The parser validates before calling: e.g. onToneHole is only called after onSection,
+ *  and records with errors are reported to onError instead of their own method. */
+public interface WMLHandler {
+   /** The kind of profile a point belongs to. */
+   public enum ProfileKind {BORE, BODY}
+
+   /** Called once, before any other method. */
+   default void startDocument() {}
+
+   /** Called once, after all other methods (even if there were errors). */
+   default void endDocument() {}
+
+   /** Checked after each line; return false to stop parsing early (e.g. when the handler
+    *  has everything it needs). The parser then ends the document as if the text ended. */
+   default boolean wantsMore() {return true;}
+
+   /** A text-valued header record; key is one of the WMLParser tag constants (e.g. WMLParser.id). */
+   default void onHeader(String key, String value) {}
+
+   default void onUnits(Units units) {}
+
+   default void onPitchStandard(double pitchStandard) {}
+
+   default void onNoteRange(String startNote, String endNote) {}
+
+   /** Start of a new part. Also called with WMLParser.DEFAULT_PART_NAME if the file
+    *  has records before any part record. The name is null if the part is unnamed. */
+   default void onPart(String name) {}
+
+   default void onSection(String name, double length) {}
+
+   /** An alternate section that can replace the most recent section given to onSection
+    *  (e.g. corps de rechange). The records that follow belong to it, until the next
+    *  section, alternate section, joint or part. */
+   default void onAltSection(String name, double length) {}
+
+   /** A joint; it joins the most recent section to the next one. */
+   default void onJoint(TenonDirection tenonDirection, double tenonLength, double tenonDiam,
+      double extension) {}
+
+   /** A tone hole in the current section; optional values are 0 if missing. The angle is
+    *  in degrees, clockwise looking down the instrument. */
+   default void onToneHole(double xCoord, double diam, double bodyDiam, double bodyToTop,
+      double angle) {}
+
+   /** A blow hole in the current section; optional values are 0 if missing. */
+   default void onBlowHole(double xCoord, double length, double width, double bodyDiam,
+      double corkDist) {}
+
+   /** Start of a bore or body profile. */
+   default void onProfileStart(ProfileKind kind) {}
+
+   /** A point in the current profile. */
+   default void onProfilePoint(ProfileKind kind, double xCoord, double diam) {}
+
+   /** End of the current profile. */
+   default void onProfileEnd(ProfileKind kind) {}
+
+   /** A parse error; code.formatMessage(arg) gives its message. Column is 1-based, or 0 if
+    *  unknown. The record on that line is not reported otherwise. */
+   default void onError(int lineNum, int column, WMLDiagnostics.Code code, String arg) {}
+}
@@ -0,0 +1,148 @@
+package forbesflutes.wml;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/** A bounded cache of parse results, keyed by a 64-bit hash of the text (plus its length,
+ *  and the file path for files), so parsing identical text again returns the earlier
+ *  WMLData and messages. The least recently used entry is dropped when the cache is full.
+ *  Cached data is shared by everyone who gets it, so it must be treated as read-only
+ *  (copy it before changing it, e.g. with WMLData.convertUnits, or read it in other units
+ *  through a UnitView). Thread-safe. */
+public class WMLParseCache {
+   public static final int DEFAULT_CAPACITY = 64;
+   private static final WMLParseCache sharedCache = new WMLParseCache(DEFAULT_CAPACITY);
+
+   private final int capacity;
+   private final Map<Key, WMLParser.ParseResult> entries;
+   private long hits = 0;
+   private long misses = 0;
+
+   public WMLParseCache(int capacity) {
+      this.capacity = capacity;
+      entries = new LinkedHashMap<Key, WMLParser.ParseResult>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, WMLParser.ParseResult> eldest) {
+            return size() > WMLParseCache.this.capacity;
+         }
+      };
+   }
+
+   /** The cache shared by the editor and batch (Browse, Bores) parsing. */
+   public static WMLParseCache getShared() {
+      return sharedCache;
+   }
+
+   /** Parse in-memory text, or return the cached result of parsing the same text. */
+   public WMLParser.ParseResult parseText(CharSequence text) {
+      Key key = new Key(text, null);
+      WMLParser.ParseResult result = get(key);
+      if(result == null) {
+         result = WMLParser.parseText(text);
+         put(key, result);
+      }
+      return result;
+   }
+
+   /** Parse a file, or return the cached result if the file's contents haven't changed
+    *  since it was last parsed. The file is mapped once, and the hash and the parse are
+    *  both of that mapping. */
+   public WMLParser.ParseResult parseTextFile(String filePath) throws IOException {
+      return parseTextFile(filePath, MappedCharSequence.map(filePath));
+   }
+
+   /** As parseTextFile(String), for the text of the file that the caller has already read.
+    *  The text that is hashed is the text that is parsed. */
+   public WMLParser.ParseResult parseTextFile(String filePath, CharSequence text) {
+      Key key = new Key(text, filePath);
+      WMLParser.ParseResult result = get(key);
+      if(result == null) {
+         WMLParser parser = new WMLParser();
+         parser.parseFile(filePath, text);
+         result = parser.getResult();
+         put(key, result);
+      }
+      return result;
+   }
+
+   /** Get the cached result for parsing text, or null if there isn't one. */
+   public WMLParser.ParseResult get(CharSequence text) {
+      return get(new Key(text, null));
+   }
+
+   /** Cache the result of parsing text. */
+   public void put(CharSequence text, WMLParser.ParseResult result) {
+      put(new Key(text, null), result);
+   }
+
+   private synchronized WMLParser.ParseResult get(Key key) {
+      WMLParser.ParseResult result = entries.get(key);
+      if(result != null) ++hits;
+      else ++misses;
+      return result;
+   }
+
+   private synchronized void put(Key key, WMLParser.ParseResult result) {
+      entries.put(key, result);
+   }
+
+   /** Remove all entries; the hit and miss counts are kept. */
+   public synchronized void clear() {
+      entries.clear();
+   }
+
+   public synchronized int size() {return entries.size();}
+
+   public int getCapacity() {return capacity;}
+
+   public synchronized long getHits() {return hits;}
+
+   public synchronized long getMisses() {return misses;}
+
+   @Override
+   public synchronized String toString() {
+      return String.format("WMLParseCache: %d of %d entries, %d hits, %d misses",
+         entries.size(), capacity, hits, misses);
+   }
+
+   /** Compute a 64-bit FNV-1a hash of the characters of a text. */
+   public static long hash(CharSequence text) {
+      long hash = 0xcbf29ce484222325L;
+      int length = text.length();
+      for(int i = 0; i < length; i++) {
+         hash ^= text.charAt(i);
+         hash *= 0x100000001b3L;
+      }
+      return hash;
+   }
+
+   /** The identity of a text: with a 64-bit hash and the length, the chance of two
+    *  different texts colliding is negligible. */
+   private static class Key {
+      final long hash;
+      final int length;
+      final String filePath;  // nullable
+
+      Key(CharSequence text, String filePath) {
+         hash = hash(text);
+         length = text.length();
+         this.filePath = filePath;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if(!(o instanceof Key)) return false;
+         Key other = (Key) o;
+         return hash == other.hash && length == other.length && Objects.equals(filePath, other.filePath);
+      }
+
+      @Override
+      public int hashCode() {
+         return Long.hashCode(hash) * 31 + Objects.hashCode(filePath);
+      }
+   }
+}
@@ -10,35 +10,107 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.StringReader;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import forbesflutes.wml.WMLData.Section;
+import forbesflutes.wml.ParseMetricsListener.ParseMetrics;
 import forbesflutes.wml.WMLData.Units;
 import forbesflutes.wml.WMLData.Joint.TenonDirection;
-import forbesflutes.boreptb.core.XYCurve;
 
 /** Parses a WML file and creates WMLData. 
  *  CAUTION: WMLData does not hold any comments that may be in the file. */
 public class WMLParser {
    
    /** This should be thrown when any error is encountered in parsing. 
-    *  Handling is tied into the error logging mechanism. */
+    *  Handling is tied into the error logging mechanism. It holds the parts of a
+    *  diagnostic rather than a message, and has no stack trace, so it is cheap to throw. */
    protected static class WMLParseException extends Exception {
       protected static final long serialVersionUID = 1L;
+      public final WMLDiagnostics.Code code;
+      public final int column;  // 1-based, 0 if unknown
+      public final String arg;  // nullable
 
-      public WMLParseException(String msg) {
-         super(msg);
+      public WMLParseException(WMLDiagnostics.Code code, int column, String arg) {
+         super(null, null, false, false);
+         this.code = code;
+         this.column = column;
+         this.arg = arg;
+      }
+      
+      @Override
+      public String getMessage() {
+         return code.formatMessage(arg);
+      }
+   }
+   
+   /** The outcome of one parse: the data, the diagnostics, and whether the data is valid. 
+    *  Results from parseText and parseTextFile hold data that nothing else refers to,
+    *  so they can be handed between threads freely. */
+   public static class ParseResult {
+      public final WMLData data;
+      public final WMLDiagnostics diagnostics;  // a copy; don't change it
+      public final List<String> messages;  // unmodifiable; formatted as they are read
+      public final boolean isValid;
+      final boolean wasStopped;
+      // parser state needed to restore the result into a parser (see restoreResult); empty if unknown
+      final List<SectionBlock> sectionBlocks;
+      
+      public ParseResult(WMLData data, WMLDiagnostics diagnostics, boolean isValid) {
+         this(data, diagnostics, isValid, false, Collections.<SectionBlock>emptyList());
+      }
+      
+      ParseResult(WMLData data, WMLDiagnostics diagnostics, boolean isValid, boolean wasStopped,
+         List<SectionBlock> sectionBlocks) {
+         this.data = data;
+         this.diagnostics = diagnostics.copy();
+         this.messages = this.diagnostics.getMessages(isValid, wasStopped);
+         this.isValid = isValid;
+         this.wasStopped = wasStopped;
+         this.sectionBlocks = copySectionBlocks(sectionBlocks);
+      }
+   }
+   
+   /** The lines of the text that define one section: the section record and the
+    *  toneHole, blowHole, bore and body records that follow it, up to the next
+    *  section, part or joint. Recorded so that an edit inside a section can be
+    *  re-parsed without re-parsing the whole text. */
+   protected static class SectionBlock {
+      int partIndex;
+      int sectionIndex;  // within the part
+      int firstLine;
+      int lastLine;
+      boolean isSelfContained = true;  // false if other (e.g. header) records are mixed in
+      
+      SectionBlock(int partIndex, int sectionIndex, int firstLine) {
+         this.partIndex = partIndex;
+         this.sectionIndex = sectionIndex;
+         this.firstLine = firstLine;
+         this.lastLine = firstLine;
+      }
+      
+      boolean contains(int first, int last) {
+         return first >= firstLine && last <= lastLine;
+      }
+      
+      SectionBlock copy() {
+         SectionBlock copy = new SectionBlock(partIndex, sectionIndex, firstLine);
+         copy.lastLine = lastLine;
+         copy.isSelfContained = isSelfContained;
+         return copy;
       }
    }
    
+   /** Copy section blocks, which re-parsing changes in place. */
+   protected static List<SectionBlock> copySectionBlocks(List<SectionBlock> blocks) {
+      List<SectionBlock> copies = new ArrayList<SectionBlock>(blocks.size());
+      for(SectionBlock block: blocks)
+         copies.add(block.copy());
+      return copies;
+   }
+   
    // line types (first token of line):
    public static final String POUND = "#";
    public static final String id = "id";
@@ -47,6 +119,7 @@ public class WMLParser {
    public static final String subType = "subtype";
    public static final String part = "part";
    public static final String section = "section";
+   public static final String altSection = "altsection";
    public static final String owner = "owner";
    public static final String maker = "maker";
    public static final String serial = "serial"; 
@@ -62,48 +135,102 @@ public class WMLParser {
    public static final String noteRange = "noterange";
    public static final String bore = "bore";
    public static final String body = "body";     
+   // all tags, for matching the first token of a line without creating a String:
+   protected static final String[] tags = {id, name, type, subType, part, section, altSection, owner, maker,
+      serial, submittedBy, measuredBy, url, pitchStandard, keyOf, units, toneHole, blowHole, joint,
+      noteRange, bore, body};
    
    // other constants
    public static final String DEFAULT_PART_NAME = "default";     
    
    // parsing state:
-   protected String wimText;
-   protected List<String> messages = new ArrayList<String>();
-   protected String line;
+   protected CharSequence wimText;
+   protected WMLDiagnostics diagnostics = new WMLDiagnostics();
+   protected int maxErrors = 0;  // stop parsing after this many errors; 0 for no limit
+   protected boolean wasStopped = false;  // the last parse stopped at maxErrors
+   protected boolean isParsed = false;  // there is a parse result
+   protected List<SectionBlock> sectionBlocks = new ArrayList<SectionBlock>();
+   protected SectionBlock currentBlock;
    protected int lineNum = 0;
-   protected List<String> tokens;
-   protected List<Double> xCoords = new ArrayList<Double>();
-   protected List<Double> yCoords = new ArrayList<Double>();
+   protected WMLScanner scanner;  // tokens of the current line
+   protected WMLHandler handler;  // receives the records as they are parsed
+   protected WMLTreeBuilder builder = new WMLTreeBuilder();  // builds the data for parse()
    protected boolean inBore = false;
    protected boolean inBody = false;
-   protected WMLData data = new WMLData();
-   protected WMLData.Part currentPart;
-   protected WMLData.Section currentSection;
-   protected WMLData.Joint currentJoint;
+   // structure seen so far, for validation:
+   protected boolean inPart = false;
+   protected boolean hasSection = false;  // the current part has a section
+   protected boolean hasJoint = false;    // a joint has appeared since the last section
+   protected int partIndex = -1;
+   protected int sectionIndex = -1;  // within the current part
    protected boolean dataIsValid = false;  // indicates last parse succeeded and data is present + valid
+   protected ParseMetricsListener metricsListener = defaultMetricsListener;
+   private static volatile ParseMetricsListener defaultMetricsListener = ParseMetricsListener.NONE;
+   
+   /** Set the metrics listener for parsers created from now on, including those made by the 
+    *  static parse methods. Null means ParseMetricsListener.NONE. */
+   public static void setDefaultMetricsListener(ParseMetricsListener listener) {
+      defaultMetricsListener = listener == null ? ParseMetricsListener.NONE : listener;
+   }
    
-   /** Get all the messages from parsing. This may include errors, warnings, and suggestions. */
+   /** Set the listener that receives measurements of each full parse by this parser. 
+    *  Null means ParseMetricsListener.NONE. */
+   public void setMetricsListener(ParseMetricsListener listener) {
+      metricsListener = listener == null ? ParseMetricsListener.NONE : listener;
+   }
+   
+   /** Get all the messages from parsing. This may include errors, warnings, and suggestions. 
+    *  The list is an unmodifiable copy, which a later parse leaves as it is. Messages are
+    *  formatted as they are read from the list. */
    public List<String> getMessages() {
-      return messages;
+      if(!isParsed) return Collections.emptyList();
+      return diagnostics.getMessages(dataIsValid, wasStopped);
    }
    
    /** Get all the messages as a single string. */
    public String getAllMessages() {
-      ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-      PrintStream out = new PrintStream(byteStream);
-      for(String line: messages)
-         out.println(line);
-      String allMessages = byteStream.toString();
-      out.close();
-      return allMessages;
+      StringBuilder allMessages = new StringBuilder();
+      for(String line: getMessages())
+         allMessages.append(line).append(System.lineSeparator());
+      return allMessages.toString();
+   }
+   
+   /** Get the errors from the last parse. */
+   public WMLDiagnostics getDiagnostics() {
+      return diagnostics;
+   }
+   
+   /** Set the most errors that are stored (and so shown as messages); any more are only counted. */
+   public void setDiagnosticsCap(int cap) {
+      diagnostics = new WMLDiagnostics(cap);
+   }
+   
+   /** Make parsing stop after the given number of errors, e.g. for validating many files
+    *  where the only question is whether each is valid. 0 (the default) means no limit. */
+   public void setMaxErrors(int maxErrors) {
+      this.maxErrors = maxErrors;
    }
 
    /** Clear the state to prepare for parsing another file. */
    public void reset() {
+      resetParseState();
+      builder = new WMLTreeBuilder();
+   }
+   
+   /** Clear everything but the builder. */
+   protected void resetParseState() {
       wimText = null;
+      scanner = null;
+      handler = null;
       lineNum = 0;
-      data = new WMLData();
-      messages.clear();      
+      diagnostics.clear();
+      wasStopped = false;
+      isParsed = false;
+      sectionBlocks.clear();
+      currentBlock = null;
+      inBore = inBody = false;
+      inPart = hasSection = hasJoint = false;
+      partIndex = sectionIndex = -1;
       dataIsValid = false;
    }
    
@@ -114,61 +241,307 @@ public class WMLParser {
 
    /** Get the data from the last parse. */
    public WMLData getData() {
-      return data;
+      return builder.getData();
    };
    
-   /** Utility method that formats the error message and adds the line number. */
-   protected void throwParseError(String msg) throws WMLParseException {
-      throw new WMLParseException(msg);
+   /** Throw an error about the first token of the current line, with the tag as argument. */
+   protected void throwParseError(WMLDiagnostics.Code code) throws WMLParseException {
+      throwParseError(code, 0, scanner.getText(0));
    }
 
-   /** Add the line number to the error message. */
-   protected String formatErrorMessage(String msg) {
-      return String.format("Error on line %d: %s", lineNum, msg);
+   /** Throw an error about the given token of the current line. */
+   protected void throwParseError(WMLDiagnostics.Code code, int tokenIndex, String arg) 
+      throws WMLParseException {
+      throw new WMLParseException(code, getColumn(tokenIndex), arg);
    }
    
-   /** Parse a file. */
+   /** Get the 1-based column of a token on the current line, or of the end of the line if
+    *  there is no such token (for missing values). */
+   protected int getColumn(int tokenIndex) {
+      if(tokenIndex < scanner.getNumTokens())
+         return scanner.getTokenStart(tokenIndex) - scanner.getLineStart() + 1;
+      return scanner.getLineEnd() - scanner.getLineStart() + 1;
+   }
+   
+   /** Parse text and return the result. This is thread-safe and reentrant: all parsing 
+    *  state belongs to this call, so any number of threads can call it at once. */
+   public static ParseResult parseText(CharSequence text) {
+      WMLParser parser = new WMLParser();
+      try {
+         parser.parse(text);
+      } catch (IOException e) {
+         parser.processParseError(WMLDiagnostics.Code.READ_ERROR, 0, e.getMessage());
+      }
+      return parser.getResult();
+   }
+   
+   /** Parse a file and return the result. Thread-safe and reentrant, like parseText. */
+   public static ParseResult parseTextFile(String filePath) throws IOException {
+      WMLParser parser = new WMLParser();
+      parser.parseFile(filePath);
+      return parser.getResult();
+   }
+   
+   /** Parse text, reporting each record to the handler instead of building WMLData.
+    *  Returns if the text is valid. Thread-safe and reentrant, like parseText. */
+   public static boolean parseText(CharSequence text, WMLHandler handler) {
+      return new WMLParser().parse(text, handler);
+   }
+   
+   /** Parse a file, reporting each record to the handler instead of building WMLData.
+    *  Returns if the file is valid. Thread-safe and reentrant, like parseText. */
+   public static boolean parseTextFile(String filePath, WMLHandler handler) throws IOException {
+      long readStart = System.nanoTime();
+      MappedCharSequence text = MappedCharSequence.map(filePath);
+      return new WMLParser().parse(text, handler, filePath, System.nanoTime() - readStart);
+   }
+   
+   /** Get the result of the last parse. The result shares the parser's data, but later
+    *  parses and re-parses never change it: they build new WMLData (and new Part objects
+    *  where sections are replaced) instead. */
+   public ParseResult getResult() {
+      return new ParseResult(getData(), diagnostics, dataIsValid, wasStopped, sectionBlocks);
+   }
+   
+   /** Make a result from an earlier parse of the same text (e.g. from a WMLParseCache) 
+    *  the parser's current state, as if text had just been parsed. Incremental re-parsing
+    *  works afterwards if the result came from getResult(). */
+   public void restoreResult(CharSequence text, ParseResult result) {
+      resetParseState();
+      builder = new WMLTreeBuilder();
+      builder.data = result.data;
+      handler = builder;
+      wimText = text;
+      diagnostics = result.diagnostics.copy();
+      sectionBlocks.addAll(copySectionBlocks(result.sectionBlocks));
+      dataIsValid = result.isValid;
+      wasStopped = result.wasStopped;
+      isParsed = true;
+   }
+   
+   /** Parse a file. The file is memory-mapped and scanned directly from the mapped
+    *  buffer, so the file contents are never copied onto the heap as a whole. */
    public boolean parseFile(String filePath) throws IOException {
-      data.filepath = filePath;
-      String fileText = Files.readString(Path.of(filePath));
-      return parse(fileText);
+      long readStart = System.nanoTime();
+      MappedCharSequence text = MappedCharSequence.map(filePath);
+      return parseFile(filePath, text, System.nanoTime() - readStart);
+   }
+   
+   /** Parse the text of a file that the caller has already read, e.g. to check the same
+    *  bytes against a checksum. The data's file path is set as parseFile(String) sets it. */
+   public boolean parseFile(String filePath, CharSequence text) {
+      return parseFile(filePath, text, 0);
+   }
+   
+   private boolean parseFile(String filePath, CharSequence text, long readNanos) {
+      builder = new WMLTreeBuilder();
+      boolean isValid = parse(text, builder, filePath, readNanos);
+      wimText = null;  // don't hold on to the mapping
+      scanner = null;
+      getData().filepath = filePath;  // after parse(), which resets the data
+      return isValid;
+   }
+   
+   /** Parse in-memory text. The text is scanned in place; no per-line strings are created. */
+   public boolean parse(CharSequence wimText) throws IOException {
+      builder = new WMLTreeBuilder();
+      return parse(wimText, builder);
    }
    
-   /** Parse in-memory text.  */
-   public boolean parse(String wimText) throws IOException {
-      System.out.println("Parsing...");
-      reset();
+   /** Parse in-memory text, reporting each record to the handler. */
+   protected boolean parse(CharSequence wimText, WMLHandler handler) {
+      return parse(wimText, handler, null, 0);
+   }
+   
+   /** Parse text, reporting each record to the handler. The file path and the time it took
+    *  to read the file are only used for the metrics. */
+   protected boolean parse(CharSequence wimText, WMLHandler handler, String filePath, long readNanos) {
+      ParseMetrics metrics = null;
+      if(metricsListener != ParseMetricsListener.NONE) {
+         metrics = new ParseMetrics();
+         metrics.filepath = filePath;
+         metrics.readNanos = readNanos;
+         metrics.start();
+      }
+      resetParseState();
       this.wimText = wimText;
+      this.handler = metrics == null ? handler : new MeasuringHandler(handler, metrics);
       dataIsValid = true;
-      BufferedReader in = new BufferedReader(new StringReader(wimText));
-      while ((line = in.readLine()) != null) {
-         ++lineNum;
-         try {
-            parseLine(line);
-         }
-         catch(WMLParseException pe) {
-            processParseError(pe.getMessage());
-         }
-         catch(Exception e) {
-            e.printStackTrace();
+      scanner = new WMLScanner(wimText);
+      this.handler.startDocument();
+      if(metrics == null) {
+         while (handler.wantsMore() && !wasStopped && scanner.nextLine()) {
+            lineNum = scanner.getLineNum();
+            parseCurrentLine();
          }
       }
-      in.close();
-      endFile();
-      if(dataIsValid)
-         messages.add("Check succeeded; file is valid.");
       else
-         messages.add("Check failed; errors were found.");
+         parseLinesMeasured(metrics);
+      endFile();
+      this.handler.endDocument();
+      this.handler = handler;
+      isParsed = true;
+      if(metrics != null) {
+         metrics.errorCount = diagnostics.getErrorCount();
+         metrics.finish();
+         metricsListener.parseCompleted(metrics);
+      }
       return dataIsValid;
    }
-
+   
+   /** The main loop of parse(), timing the tokenizing of each line and the parsing of it. */
+   private void parseLinesMeasured(ParseMetrics metrics) {
+      long parseNanos = 0;
+      long buildNanosBefore = metrics.buildNanos;
+      long time = System.nanoTime();
+      while (handler.wantsMore() && !wasStopped) {
+         boolean hasLine = scanner.nextLine();
+         long tokenizedTime = System.nanoTime();
+         metrics.tokenizeNanos += tokenizedTime - time;
+         if(!hasLine) break;
+         lineNum = scanner.getLineNum();
+         parseCurrentLine();
+         time = System.nanoTime();
+         parseNanos += time - tokenizedTime;
+      }
+      metrics.lineCount = scanner.getLineNum();
+      metrics.validateNanos = parseNanos - (metrics.buildNanos - buildNanosBefore);
+   }
+   
+   /** Parse the scanner's current line, handling any errors. */
+   private void parseCurrentLine() {
+      try {
+         parseLine();
+      }
+      catch(WMLParseException pe) {
+         processParseError(pe.code, pe.column, pe.arg);
+      }
+      catch(RuntimeException e) {
+         // a bug rather than a problem with the text, but the record is still lost
+         processParseError(WMLDiagnostics.Code.INTERNAL_ERROR, 0, e.toString());
+      }
+   }
+   
+   /** Re-parse after an edit that changed lines firstLine through lastLine (1-based, numbered
+    *  as in the new text); lineDelta is the change in the number of lines in the text.
+    *  If the edit lies inside one section, only that section is re-parsed and replaced,
+    *  and all other Section objects are kept. Returns false (leaving the data unchanged)
+    *  if that isn't possible, in which case the caller should do a full parse. */
+   public boolean reparseSection(CharSequence newText, int firstLine, int lastLine, int lineDelta) {
+      int oldLastLine = Math.max(firstLine, lastLine - lineDelta);
+      SectionBlock block = null;
+      for(SectionBlock candidate: sectionBlocks)
+         if(candidate.contains(firstLine, oldLastLine)) block = candidate;
+      if(block == null || !block.isSelfContained || handler != builder) return false;
+      // the lines of errors that weren't stored are unknown, so they can't be moved
+      if(diagnostics.isTruncated() || maxErrors > 0) return false;
+      WMLData.Part part = getData().parts.get(block.partIndex);
+      WMLData.Section oldSection = part.sections.get(block.sectionIndex);
+      int newLastLine = block.lastLine + lineDelta;
+      if(newLastLine < block.firstLine) return false;
+      
+      // parse the block into a scratch part, with the state the full parse had at its start
+      WMLData.Part scratchPart = new WMLData.Part();
+      handler = new WMLTreeBuilder(scratchPart, oldSection.topJoint);
+      WMLDiagnostics allDiagnostics = diagnostics;
+      diagnostics = new WMLDiagnostics(allDiagnostics.getCap());
+      scanner = new WMLScanner(newText);
+      scanner.skipLines(block.firstLine - 1);
+      inPart = true;
+      hasSection = block.sectionIndex > 0;
+      hasJoint = oldSection.topJoint != null;
+      currentBlock = null;
+      inBore = inBody = false;
+      boolean isSelfContained = true;
+      WMLDiagnostics blockDiagnostics;
+      try {
+         while(scanner.getLineNum() < newLastLine && scanner.nextLine()) {
+            lineNum = scanner.getLineNum();
+            if(!isSectionBlockLine(lineNum == block.firstLine)) {
+               isSelfContained = false;
+               break;
+            }
+            parseCurrentLine();
+         }
+         endXYSequence();
+      }
+      finally {
+         // back to the full parse's state, however the block parse ended; it recorded a
+         // block of its own, which would otherwise be left among the full parse's
+         handler = builder;
+         scanner = null;
+         sectionBlocks.remove(currentBlock);
+         currentBlock = null;
+         blockDiagnostics = diagnostics;
+         diagnostics = allDiagnostics;
+      }
+      if(!isSelfContained || scratchPart.sections.size() != 1)
+         return false;
+      
+      // replace the section in new WMLData and Part objects, so data from earlier results
+      // is left as it was; then shift everything after it
+      WMLData.Section newSection = scratchPart.sections.get(0);
+      WMLData newData = getData().shallowCopy();
+      WMLData.Part newPart = part.shallowCopy();
+      newPart.sections.set(block.sectionIndex, newSection);
+      newPart.stitchSectionJoints();
+      newData.parts.set(block.partIndex, newPart);
+      builder.data = newData;
+      WMLDiagnostics newDiagnostics = new WMLDiagnostics(diagnostics.getCap());
+      for(int i = 0; i < diagnostics.size(); i++) {
+         if(diagnostics.getLineNum(i) < block.firstLine)
+            newDiagnostics.add(diagnostics, i, 0);
+      }
+      for(int i = 0; i < blockDiagnostics.size(); i++)
+         newDiagnostics.add(blockDiagnostics, i, 0);
+      for(int i = 0; i < diagnostics.size(); i++) {
+         if(diagnostics.getLineNum(i) > block.lastLine)
+            newDiagnostics.add(diagnostics, i, lineDelta);
+      }
+      diagnostics = newDiagnostics;
+      for(SectionBlock otherBlock: sectionBlocks) {
+         if(otherBlock.firstLine > block.lastLine) {
+            otherBlock.firstLine += lineDelta;
+            otherBlock.lastLine += lineDelta;
+         }
+      }
+      block.lastLine = newLastLine;
+      wimText = newText;
+      dataIsValid = diagnostics.getErrorCount() == 0;
+      return true;
+   }
+   
+   /** Check that the scanner's current line can be part of a section block: the first line
+    *  must be the section record, and the rest must be section-level records. */
+   private boolean isSectionBlockLine(boolean isFirstLine) {
+      if(scanner.getNumTokens() == 0) 
+         return !isFirstLine;
+      if(isFirstLine)
+         return scanner.tokenEqualsIgnoreCase(0, section);
+      if(scanner.isNumeric(0)) 
+         return true;
+      String tag = scanner.matchToken(0, tags);
+      return tag == null || isSectionRecord(tag);  // unknown tags just reproduce their error
+   }
+   
+   /** Returns if the tag is a record that belongs to the current section. */
+   protected static boolean isSectionRecord(String tag) {
+      return toneHole.equals(tag) || blowHole.equals(tag) || bore.equals(tag) || body.equals(tag)
+         || altSection.equals(tag);
+   }
+   
    /** Take appropriate actions in response to a parse error. */
-   private void processParseError(String errMsg) {
+   private void processParseError(WMLDiagnostics.Code code, int column, String arg) {
       dataIsValid = false;
-      messages.add(formatErrorMessage(errMsg));
+      diagnostics.add(lineNum, column, code, arg);
+      if(maxErrors > 0 && diagnostics.getErrorCount() >= maxErrors)
+         wasStopped = true;
+      if(handler != null)
+         handler.onError(lineNum, column, code, arg);
    }
 
-   /** Break a non-comment line into tokens. */
+   /** Break a non-comment line into tokens. The parser itself uses WMLScanner; this is
+    *  for utilities that need the tokens as strings. */
    protected static List<String> tokenize(String line) {
       line = line.trim();
       int poundIndex = line.indexOf(POUND);
@@ -178,52 +551,75 @@ public class WMLParser {
       return tokenizer.getTokens();
    }
 
-   /** Parse a single line. */
-   protected void parseLine(String line) throws WMLParseException {
-      tokens = tokenize(line);
-      if(tokens.size() == 0) return;
-      String tag = tokens.get(0).toLowerCase();
-      if(currentPart == null && !tag.equals(part))
-          addPart(DEFAULT_PART_NAME); // create a default part
-      if(isNumeric(tag)) {
+   /** Parse the current line of the scanner. */
+   protected void parseLine() throws WMLParseException {
+      if(scanner.getNumTokens() == 0) return;
+      boolean isNumeric = scanner.isNumeric(0);
+      // tag is one of the constants above (or null), so no String is created for it
+      String tag = isNumeric ? null : scanner.matchToken(0, tags);
+      trackSectionBlock(tag);
+      if(!inPart && !part.equals(tag))
+          startPart(DEFAULT_PART_NAME); // create a default part
+      if(isNumeric) {
          if(inBore || inBody)
             parseXY();
          else  
-            throwParseError("Numeric line out of context: " + tag);
+            throwParseError(WMLDiagnostics.Code.NUMERIC_OUT_OF_CONTEXT);
+      }
+      else if(tag == null) {
+         endXYSequence();
+         throwParseError(WMLDiagnostics.Code.UNKNOWN_TAG, 0, scanner.getText(0).toLowerCase());
       }
       else {
          endXYSequence();
          switch(tag) {
-            case id: data.id = getTextToken(1); break;
-            case name: data.name = getTextToken(1); break;
-            case type: data.type = getTextToken(1); break;
-            case subType: data.subType = getTextToken(1); break;
-            case serial: data.serial = getTextToken(1); break;
-            case maker: data.maker = getTextToken(1); break;
-            case owner: data.owner = getTextToken(1); break;
-            case submittedBy: data.submittedBy = getTextToken(1); break;
-            case measuredBy: data.measuredBy = getTextToken(1); break;
-            case url: data.url = getTextToken(1); break;
-            case pitchStandard: data.pitchStandard = getDoubleToken(1); break;
-            case keyOf: data.keyOf = getTextToken(1); break;
+            case id: 
+            case name: 
+            case type: 
+            case subType: 
+            case serial: 
+            case maker: 
+            case owner: 
+            case submittedBy: 
+            case measuredBy: 
+            case url: 
+            case keyOf: handler.onHeader(tag, getTextToken(1)); break;
+            case pitchStandard: handler.onPitchStandard(getDoubleToken(1)); break;
             case units: parseUnits(); break;
             case noteRange: parseNoteRange(); break;            
             case section: parseSection(); break;
+            case altSection: parseAltSection(); break;
             case part: parsePart(); break;
             case toneHole: parseToneHole(); break;
             case blowHole: parseBlowHole(); break;
             case joint: parseJoint(); break;
-            case bore: inBore = true; break;
-            case body: inBody = true; break;
-            default: throwParseError("Unknown tag " + tag);
+            case bore: startXYSequence(WMLHandler.ProfileKind.BORE); break;
+            case body: startXYSequence(WMLHandler.ProfileKind.BODY); break;
+            default: throwParseError(WMLDiagnostics.Code.UNKNOWN_TAG, 0, tag);
          }
       }
    }
 
+   /** Keep track of which lines belong to which section (see SectionBlock). */
+   protected void trackSectionBlock(String tag) {
+      if(section.equals(tag) || part.equals(tag) || joint.equals(tag))
+         endSectionBlock(lineNum - 1);
+      else if(currentBlock != null && tag != null && !isSectionRecord(tag))
+         currentBlock.isSelfContained = false;
+   }
+   
+   /** End the line range of the current section block, if any. */
+   protected void endSectionBlock(int lastLine) {
+      if(currentBlock != null)
+         currentBlock.lastLine = lastLine;
+      currentBlock = null;
+   }
+
    /** Parse a pair of doubles, e.g. a point in a bore or body profile. */
    protected void parseXY() throws WMLParseException {
-      xCoords.add(Double.valueOf(getDoubleToken(0)));
-      yCoords.add(Double.valueOf(getDoubleToken(1)));      
+      double x = getDoubleToken(0);
+      double y = getDoubleToken(1);
+      handler.onProfilePoint(inBore ? WMLHandler.ProfileKind.BORE : WMLHandler.ProfileKind.BODY, x, y);
    }
 
    /** Return if the string looks like a number. */
@@ -233,52 +629,51 @@ public class WMLParser {
       return Character.isDigit(firstChar) || firstChar == '.';
    }
 
-   /** Check that a string is a legal note name (e.g. "C4" or "Bb6") and throw if it isn't. */
-   protected void assertLegalNote(String note) throws WMLParseException {
+   /** Check that a token is a legal note name (e.g. "C4" or "Bb6") and throw if it isn't. */
+   protected void assertLegalNote(String note, int tokenIndex) throws WMLParseException {
       if(note.length() < 2 || note.length() > 3)
-         throwParseError("Note name must be two or three characters, e.g. C4 or Bb5");
+         throwParseError(WMLDiagnostics.Code.NOTE_NAME_LENGTH, tokenIndex, null);
       char noteName = Character.toLowerCase(note.charAt(0));
       if(noteName < 'a' || noteName > 'g')
-         throwParseError("Illegal note: " + noteName);
+         throwParseError(WMLDiagnostics.Code.ILLEGAL_NOTE, tokenIndex, String.valueOf(noteName));
       if(note.length() == 3) {
          char accidental = note.charAt(1);
          if(!(accidental == '#' || accidental == 'b'))
-            throwParseError("Illegal accidental: " + accidental);
+            throwParseError(WMLDiagnostics.Code.ILLEGAL_ACCIDENTAL, tokenIndex, String.valueOf(accidental));
       }
       char octaveChar = note.charAt(note.length() - 1);
       if(octaveChar < '0' || octaveChar > '9')
-         throwParseError("Illegal octave number: " + octaveChar);      
+         throwParseError(WMLDiagnostics.Code.ILLEGAL_OCTAVE, tokenIndex, String.valueOf(octaveChar));
    }
    
    /** Check that a section has been defined and throw if it hasn't. */
    private void assertSection() throws WMLParseException {
-      if(currentSection == null)
-         throwParseError("section must appear before " + tokens.get(0));
+      if(!hasSection)
+         throwParseError(WMLDiagnostics.Code.SECTION_REQUIRED);
    }
    
-   /** Parse a floating-point value from the token list. 
+   /** Parse a floating-point value from the current line, directly from the text.
     *  Throws if string is missing or an invalid format. */
    protected double getDoubleToken(int index) throws WMLParseException {
-      if(tokens.size() <= index)
-         throwParseError(String.format("Missing value for %s", tokens.get(0)));
-      String sValue = tokens.get(index);
+      if(scanner.getNumTokens() <= index)
+         throwParseError(WMLDiagnostics.Code.MISSING_VALUE, index, scanner.getText(0));
       double dValue = 0.;
       try {
-         dValue = Double.parseDouble(sValue);
+         dValue = scanner.getDouble(index);
       }
       catch(NumberFormatException e) {
-         throwParseError(String.format("Illegal floating point format: %s", sValue));
+         throwParseError(WMLDiagnostics.Code.ILLEGAL_NUMBER, index, scanner.getText(index));
       }
       return dValue;
    }
 
-   /** Get a text token from the token list. */
+   /** Get a text token from the current line. */
    protected String getTextToken(int index) throws WMLParseException {
-      if(tokens.size() > index) {
-         return tokens.get(1);
+      if(scanner.getNumTokens() > index) {
+         return scanner.getText(index);
       }
       else {
-         throwParseError(String.format("No value for %s", tokens.get(0)));
+         throwParseError(WMLDiagnostics.Code.NO_VALUE, index, scanner.getText(0));
          return null; // fake return for the compiler
       }
    }
@@ -288,103 +683,82 @@ public class WMLParser {
    protected void endFile() {
       endXYSequence();
       ++lineNum;
-      endPart();  // this will call endSection
+      // the last block includes the (empty) line past the end, so appending to it is an edit within it
+      endSectionBlock(lineNum);
+   }
+   
+   /** Start a bore or body profile. */
+   protected void startXYSequence(WMLHandler.ProfileKind kind) {
+      inBore = kind == WMLHandler.ProfileKind.BORE;
+      inBody = kind == WMLHandler.ProfileKind.BODY;
+      handler.onProfileStart(kind);
    }
    
    /** If an XY sequence is in progress, end it. */
    protected void endXYSequence() {
-      if(inBore) endBore();
-      if(inBody) endBody();
+      if(inBore) handler.onProfileEnd(WMLHandler.ProfileKind.BORE);
+      if(inBody) handler.onProfileEnd(WMLHandler.ProfileKind.BODY);
+      inBore = inBody = false;
    }
 
-   /** End anything in progress for a bore definition.  */
-   protected void endBore()  {
-      if(currentSection != null && inBore) {
-         currentSection.boreCurve = new XYCurve(WMLUtil.toDoubleArray(xCoords), WMLUtil.toDoubleArray(yCoords));
-         xCoords = new ArrayList<Double>();
-         yCoords = new ArrayList<Double>();
-      }
-      inBore = false;
-   }
-
-   /** End anything in progress for a body definition. */
-   protected void endBody() {
-      if(currentSection != null && inBody) {
-         currentSection.bodyCurve = new XYCurve(WMLUtil.toDoubleArray(xCoords), WMLUtil.toDoubleArray(yCoords));
-         xCoords = new ArrayList<Double>();
-         yCoords = new ArrayList<Double>();
-      }
-      inBody = false;
-   }
-
-   /** End anything in progress for a part definition. */
-   protected void endPart() {
-      endSection();
-      currentPart.endPart();
-      currentPart = null;
-   }
-      
-   /** End anything in progress for a section definition. 
-    * @throws WMLParseException */
-   protected void endSection() {      
-      currentSection = null;
-   }
-   
-   /** Create a new Part object. */
-   protected void addPart(String name) {
-      currentPart = new WMLData.Part();
-      data.parts.add(currentPart);
-      currentPart.name = name;
+   /** Start a new part. */
+   protected void startPart(String name) {
+      inPart = true;
+      hasSection = false;
+      hasJoint = false;
+      ++partIndex;
+      sectionIndex = -1;
+      handler.onPart(name);
    }
 
    /** Parse the line type included in the method name. */
    protected void parsePart() throws WMLParseException {
-      String name = tokens.size() > 1 ? name = getTextToken(1) : null;
-      addPart(name);
+      String name = scanner.getNumTokens() > 1 ? getTextToken(1) : null;
+      startPart(name);
    }
 
    /** Parse the line type included in the method name. */
    protected void parseSection() throws WMLParseException {
-      if(currentSection != null && currentJoint == null) {
-         throwParseError("No joint defined between sections");
-         endSection();
-      }
-      currentSection = new WMLData.Section();
-      currentSection.topJoint = currentJoint;
-      currentJoint = null;
-      currentPart.sections.add(currentSection);
-      currentSection.name = getTextToken(1);
-      currentSection.length = getDoubleToken(2);
+      if(hasSection && !hasJoint)
+         throwParseError(WMLDiagnostics.Code.NO_JOINT, 0, null);
+      String sectionName = getTextToken(1);
+      double length = getDoubleToken(2);
+      hasSection = true;
+      hasJoint = false;
+      ++sectionIndex;
+      currentBlock = new SectionBlock(partIndex, sectionIndex, lineNum);
+      sectionBlocks.add(currentBlock);
+      handler.onSection(sectionName, length);
+   }
+
+   /** Parse the line type included in the method name. An alternate section can replace
+    *  the most recent section, so it must come before the joint that ends that section. */
+   protected void parseAltSection() throws WMLParseException {
+      if(!hasSection || hasJoint)
+         throwParseError(WMLDiagnostics.Code.ALT_SECTION_OUT_OF_PLACE, 0, null);
+      String sectionName = getTextToken(1);
+      double length = getDoubleToken(2);
+      handler.onAltSection(sectionName, length);
    }
 
    /** Parse the line type included in the method name. */
    protected void parseNoteRange() throws WMLParseException {
       String startNote = getTextToken(1);
-      assertLegalNote(startNote);
-      currentPart.noteRangeStart = startNote;
-      
+      assertLegalNote(startNote, 1);
       String endNote = getTextToken(2);
-      assertLegalNote(endNote);
-      currentPart.noteRangeEnd = endNote;
+      assertLegalNote(endNote, 2);
+      handler.onNoteRange(startNote, endNote);
    }
 
    /** Parse the line type included in the method name. */
    protected void parseUnits() throws WMLParseException {
       String unitName = getTextToken(1).toUpperCase();
       if(unitName.equals(Units.MM.toString()))
-         data.units = Units.MM;
+         handler.onUnits(Units.MM);
       else if(unitName.equals(Units.INCH.toString()))
-         data.units = Units.INCH;
-      else
-         throwParseError("Unknown value for units: " + unitName);
-   }
-   
-   /** Get the most recently added section. */
-   protected Section getMostRecentSection() {
-      if(currentPart.sections.size() == 0)
-         return null;
+         handler.onUnits(Units.INCH);
       else
-         return currentPart.sections.get(currentPart.sections.size() - 1);
+         throwParseError(WMLDiagnostics.Code.UNKNOWN_UNITS, 1, unitName);
    }
    
    /** Parse/validate a tenonDirection field. */
@@ -394,22 +768,23 @@ public class WMLParser {
          return dir;
       }
       catch(IllegalArgumentException e) {
-         throwParseError("Unknown tenon direction: " + str);
+         throwParseError(WMLDiagnostics.Code.UNKNOWN_TENON_DIRECTION, 1, str);
          return null; // fake for compiler
       }
    }
    
    /** Parse the line type included in the method name. */
    protected void parseJoint() throws WMLParseException {
-      if(currentPart.sections.size() == 0)
-         throwParseError("No section for joint");      
-      WMLData.Joint joint = new WMLData.Joint();
-      joint.tenonDirection = getTenonDirection(getTextToken(1));
-      joint.tenonLength = getDoubleToken(2);
-      joint.tenonDiam = getDoubleToken(3);
-      if(tokens.size() > 4)
-         joint.extension = getDoubleToken(4);
-      currentJoint = joint;
+      if(!hasSection)
+         throwParseError(WMLDiagnostics.Code.NO_SECTION_FOR_JOINT, 0, null);      
+      TenonDirection tenonDirection = getTenonDirection(getTextToken(1));
+      double tenonLength = getDoubleToken(2);
+      double tenonDiam = getDoubleToken(3);
+      double extension = 0.;
+      if(scanner.getNumTokens() > 4)
+         extension = getDoubleToken(4);
+      hasJoint = true;
+      handler.onJoint(tenonDirection, tenonLength, tenonDiam, extension);
    }
 
    /** Parse the line type included in the method name. */
@@ -418,9 +793,15 @@ public class WMLParser {
       double xCoord = getDoubleToken(1);
       double diam = getDoubleToken(2);
       double bodyDiam = 0.;
-      if(tokens.size() > 3)
+      if(scanner.getNumTokens() > 3)
          bodyDiam = getDoubleToken(3);
-      currentSection.toneHoles.add(new WMLData.ToneHole(xCoord, diam, bodyDiam));
+      double bodyToTop = 0.;
+      if(scanner.getNumTokens() > 4)
+         bodyToTop = getDoubleToken(4);
+      double angle = 0.;
+      if(scanner.getNumTokens() > 5)
+         angle = getDoubleToken(5);
+      handler.onToneHole(xCoord, diam, bodyDiam, bodyToTop, angle);
    }
 
    /** Parse the line type included in the method name. */
@@ -430,21 +811,21 @@ public class WMLParser {
       double length = getDoubleToken(2);
       double width = getDoubleToken(3);
       double bodyDiam = 0.; 
-      if(tokens.size() > 4)
+      if(scanner.getNumTokens() > 4)
          bodyDiam = getDoubleToken(4);
       double corkDist = 0.;
-      if(tokens.size() > 5)
+      if(scanner.getNumTokens() > 5)
          corkDist = getDoubleToken(5);
-      currentSection.blowHole = new WMLData.BlowHole(xCoord, length, width, bodyDiam, corkDist);
+      handler.onBlowHole(xCoord, length, width, bodyDiam, corkDist);
    }
 
-   /** Bulk unit conversion for a file. Preserves comments. */
+   /** Bulk unit conversion for a file. Preserves comments. Throws an IOException if the
+    *  file can't be read or written, or has no recognized units record. */
    public static void convertUnits(File oldFile, File newFile) throws IOException {
       // Read in the file and check units
       BufferedReader in = new BufferedReader(new InputStreamReader(
          new FileInputStream(oldFile), "UTF-8"));
       List<String> lines = new ArrayList<String>();
-      boolean unitsOK = false;
       String fileLine;
       Units existingUnits = null;
       while((fileLine = in.readLine()) != null) {
@@ -454,16 +835,13 @@ public class WMLParser {
             if(tokenizer.getTokens().size() > 1) {
                try {
                   existingUnits = Units.valueOf(tokenizer.getTokens().get(1).toUpperCase());
-               } catch(Exception e) {}              
-                  unitsOK = true;
-               }
+               } catch(IllegalArgumentException e) {}              
+            }
          }
       }
       in.close();
-      if(!unitsOK) {
-         System.out.println("Conversion cannot be done; units are missing or already in requested units.");
-         return;
-      }
+      if(existingUnits == null)
+         throw new IOException("Can't convert " + oldFile + ": its units are missing or not recognized");
       Units newUnits = (existingUnits == Units.MM) ? Units.INCH : Units.MM;
       // convert and write out line-by-line
       double conversionFactor = WMLData.getConversionFactor(newUnits);
@@ -474,8 +852,11 @@ public class WMLParser {
          }
          else {
             List<String> tokens = tokenize(line);
-            for(String token: tokens) {
-               if(isNumeric(token)) {
+            // a tone hole's angle (its 6th token) is in degrees, whatever the units
+            int angleIndex = !tokens.isEmpty() && tokens.get(0).equalsIgnoreCase(toneHole) ? 5 : -1;
+            for(int i = 0; i < tokens.size(); i++) {
+               String token = tokens.get(i);
+               if(isNumeric(token) && i != angleIndex) {
                   double oldValue = Double.valueOf(token);
                   String svalue = WMLUtil.formatDouble(oldValue * conversionFactor, newUnits);
                   out.printf("%s\t", svalue);
@@ -0,0 +1,251 @@
+package forbesflutes.wml;
+
+import java.util.Arrays;
+
+/** Scans WML text in place, one line at a time. Tokens are recorded as character offsets
+ *  into the source text, so no line or token strings are created unless a caller asks for
+ *  the text of a token. Tokenizing rules are the same as WMLParser.tokenize: anything after
+ *  '#' is a comment, delimiters are space and tab, and double quotes group text containing
+ *  delimiters (the quotes themselves are dropped). */
+public class WMLScanner {
+   private static final int INITIAL_TOKEN_CAPACITY = 16;
+   // largest power of ten that is exactly representable as a double
+   private static final int MAX_EXACT_POWER_OF_TEN = 22;
+   private static final double[] powersOfTen = new double[MAX_EXACT_POWER_OF_TEN + 1];
+   static {
+      powersOfTen[0] = 1.;
+      for(int i = 1; i < powersOfTen.length; i++)
+         powersOfTen[i] = powersOfTen[i - 1] * 10.;
+   }
+   // largest mantissa that converts exactly to a double (2^53)
+   private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+   private final CharSequence text;
+   private final int textLength;
+   private int pos = 0;         // start of the next line
+   private int lineNum = 0;
+   private int lineStart;
+   private int lineEnd;
+   private int numTokens;
+   private int[] tokenStarts = new int[INITIAL_TOKEN_CAPACITY];
+   private int[] tokenEnds = new int[INITIAL_TOKEN_CAPACITY];
+   private boolean[] tokenQuoted = new boolean[INITIAL_TOKEN_CAPACITY];
+
+   public WMLScanner(CharSequence text) {
+      this.text = text;
+      this.textLength = text.length();
+   }
+
+   /** Advance to the next line and tokenize it. Returns false at the end of the text.
+    *  Line terminators are the same as for BufferedReader: \n, \r, or \r\n. */
+   public boolean nextLine() {
+      if(!advanceLine()) return false;
+      tokenizeLine();
+      return true;
+   }
+
+   /** Skip over lines without tokenizing them. Returns false if the end of the text is reached. */
+   public boolean skipLines(int numLines) {
+      numTokens = 0;
+      for(int n = 0; n < numLines; n++)
+         if(!advanceLine()) return false;
+      return true;
+   }
+
+   /** Find the bounds of the next line. */
+   private boolean advanceLine() {
+      if(pos >= textLength) return false;
+      lineStart = pos;
+      int i = pos;
+      while(i < textLength) {
+         char c = text.charAt(i);
+         if(c == '\n' || c == '\r') break;
+         ++i;
+      }
+      lineEnd = i;
+      if(i < textLength) {
+         if(text.charAt(i) == '\r' && i + 1 < textLength && text.charAt(i + 1) == '\n')
+            ++i;
+         ++i;
+      }
+      pos = i;
+      ++lineNum;
+      return true;
+   }
+
+   /** Record token offsets for the current line. */
+   private void tokenizeLine() {
+      numTokens = 0;
+      boolean inQuote = false;
+      boolean inToken = false;
+      boolean quoted = false;
+      int tokenStart = 0;
+      int tokenLength = 0; // number of non-quote chars in the token
+      int end = lineEnd;
+      for(int i = lineStart; i < lineEnd; i++) {
+         char c = text.charAt(i);
+         if(c == '#') {
+            end = i;
+            break;
+         }
+         if(c == '"') {
+            inQuote = !inQuote;
+            if(!inToken) {
+               inToken = true;
+               tokenStart = i;
+               tokenLength = 0;
+            }
+            quoted = true;
+         }
+         else if((c == ' ' || c == '\t') && !inQuote) {
+            if(inToken) {
+               if(tokenLength > 0)
+                  addToken(tokenStart, i, quoted);
+               inToken = false;
+               quoted = false;
+            }
+         }
+         else {
+            if(!inToken) {
+               inToken = true;
+               tokenStart = i;
+               tokenLength = 0;
+            }
+            ++tokenLength;
+         }
+      }
+      if(inToken && tokenLength > 0)
+         addToken(tokenStart, end, quoted);
+   }
+
+   private void addToken(int start, int end, boolean quoted) {
+      if(numTokens == tokenStarts.length) {
+         int newCapacity = 2 * numTokens;
+         tokenStarts = Arrays.copyOf(tokenStarts, newCapacity);
+         tokenEnds = Arrays.copyOf(tokenEnds, newCapacity);
+         tokenQuoted = Arrays.copyOf(tokenQuoted, newCapacity);
+      }
+      tokenStarts[numTokens] = start;
+      tokenEnds[numTokens] = end;
+      tokenQuoted[numTokens] = quoted;
+      ++numTokens;
+   }
+
+   /** The 1-based number of the current line. */
+   public int getLineNum() {return lineNum;}
+
+   /** Number of tokens on the current line. */
+   public int getNumTokens() {return numTokens;}
+
+   /** Offset of the start of the current line in the source text. */
+   public int getLineStart() {return lineStart;}
+
+   /** Offset of the end (excluding terminator) of the current line in the source text. */
+   public int getLineEnd() {return lineEnd;}
+
+   /** Offset of the given token in the source text. */
+   public int getTokenStart(int index) {return tokenStarts[index];}
+
+   /** Return the text of a token. This allocates a String, so it should be used
+    *  for text values and error messages, not for numbers or tags. */
+   public String getText(int index) {
+      int start = tokenStarts[index];
+      int end = tokenEnds[index];
+      if(!tokenQuoted[index])
+         return text.subSequence(start, end).toString();
+      // append the runs between quotes whole, so a mapped file's text is decoded as UTF-8
+      // (see MappedCharSequence) rather than char by char
+      StringBuilder builder = new StringBuilder(end - start);
+      int runStart = start;
+      for(int i = start; i < end; i++) {
+         if(text.charAt(i) != '"') continue;
+         if(i > runStart) builder.append(text.subSequence(runStart, i).toString());
+         runStart = i + 1;
+      }
+      if(end > runStart) builder.append(text.subSequence(runStart, end).toString());
+      return builder.toString();
+   }
+
+   /** Returns if the token matches the given string, ignoring case. */
+   public boolean tokenEqualsIgnoreCase(int index, String str) {
+      if(tokenQuoted[index])
+         return getText(index).equalsIgnoreCase(str);
+      int start = tokenStarts[index];
+      int length = tokenEnds[index] - start;
+      if(length != str.length()) return false;
+      for(int i = 0; i < length; i++) {
+         char c1 = text.charAt(start + i);
+         char c2 = str.charAt(i);
+         if(c1 != c2 && Character.toLowerCase(c1) != Character.toLowerCase(c2))
+            return false;
+      }
+      return true;
+   }
+
+   /** Return the candidate that matches the token (ignoring case), or null if none does.
+    *  The candidate itself is returned, so no String is created. */
+   public String matchToken(int index, String[] candidates) {
+      for(String candidate: candidates)
+         if(tokenEqualsIgnoreCase(index, candidate))
+            return candidate;
+      return null;
+   }
+
+   /** Return if the token looks like a number (same test as WMLParser.isNumeric). */
+   public boolean isNumeric(int index) {
+      if(tokenQuoted[index])
+         return WMLParser.isNumeric(getText(index));
+      char firstChar = text.charAt(tokenStarts[index]);
+      return Character.isDigit(firstChar) || firstChar == '.';
+   }
+
+   /** Parse a token as a double directly from the source text.
+    *  Throws NumberFormatException if the token is not a legal number. */
+   public double getDouble(int index) throws NumberFormatException {
+      if(tokenQuoted[index])
+         return Double.parseDouble(getText(index));
+      int start = tokenStarts[index];
+      int end = tokenEnds[index];
+      double value = parseSimpleDouble(start, end);
+      if(Double.isNaN(value))  // not a simple decimal; let the JDK handle (or reject) it
+         return Double.parseDouble(text.subSequence(start, end).toString());
+      return value;
+   }
+
+   /** Fast path for plain decimals of the form [+-]digits[.digits]. Returns NaN if the
+    *  text is not of that form or the result can't be computed exactly, in which case
+    *  the caller should fall back to Double.parseDouble. Because both the mantissa
+    *  and the power of ten are exact doubles, the single division is correctly rounded
+    *  and gives the same result as Double.parseDouble. */
+   private double parseSimpleDouble(int start, int end) {
+      int i = start;
+      boolean negative = false;
+      char c = text.charAt(i);
+      if(c == '-' || c == '+') {
+         negative = c == '-';
+         if(++i == end) return Double.NaN;
+      }
+      long mantissa = 0;
+      int numDigits = 0;
+      int fractionDigits = 0;
+      boolean seenPoint = false;
+      for(; i < end; i++) {
+         c = text.charAt(i);
+         if(c >= '0' && c <= '9') {
+            mantissa = 10 * mantissa + (c - '0');
+            if(mantissa >= MAX_EXACT_MANTISSA) return Double.NaN;
+            ++numDigits;
+            if(seenPoint) ++fractionDigits;
+         }
+         else if(c == '.' && !seenPoint) {
+            seenPoint = true;
+         }
+         else {
+            return Double.NaN;  // exponent, suffix, or garbage
+         }
+      }
+      if(numDigits == 0 || fractionDigits > MAX_EXACT_POWER_OF_TEN) return Double.NaN;
+      double value = mantissa / powersOfTen[fractionDigits];
+      return negative ? -value : value;
+   }
+}
@@ -0,0 +1,67 @@
+package forbesflutes.wml;
+
+import java.io.IOException;
+
+import forbesflutes.wml.WMLData.Units;
+
+/** The identifying information from the header of a WML file, i.e. everything before the
+ *  first section. Scanning just the header is much cheaper than a full parse, so this
+ *  is used for listing many files; the full WMLData can be parsed later if needed. */
+public class WMLSummary {
+   public String filepath;   // nullable
+   public String id;         // nullable
+   public String name;       // nullable
+   public String type;       // nullable
+   public String subType;    // nullable
+   public String maker;      // nullable
+   public Units units;       // nullable if missing from the header
+   public boolean isValid;   // no errors were found in the header
+
+   /** Scan the header of a file. Parsing stops at the first section record. */
+   public static WMLSummary scanFile(String filePath) throws IOException {
+      SummaryHandler handler = new SummaryHandler();
+      handler.summary.isValid = WMLParser.parseTextFile(filePath, handler);
+      handler.summary.filepath = filePath;
+      return handler.summary;
+   }
+
+   /** Scan the header of in-memory text. Parsing stops at the first section record. */
+   public static WMLSummary scanText(CharSequence text) {
+      SummaryHandler handler = new SummaryHandler();
+      handler.summary.isValid = WMLParser.parseText(text, handler);
+      return handler.summary;
+   }
+
+   /** Collects header records, and asks the parser to stop at the first section. */
+   private static class SummaryHandler implements WMLHandler {
+      final WMLSummary summary = new WMLSummary();
+      boolean done = false;
+
+      @Override
+      public boolean wantsMore() {
+         return !done;
+      }
+
+      @Override
+      public void onHeader(String key, String value) {
+         switch(key) {
+            case WMLParser.id: summary.id = value; break;
+            case WMLParser.name: summary.name = value; break;
+            case WMLParser.type: summary.type = value; break;
+            case WMLParser.subType: summary.subType = value; break;
+            case WMLParser.maker: summary.maker = value; break;
+            default: break;
+         }
+      }
+
+      @Override
+      public void onUnits(Units units) {
+         summary.units = units;
+      }
+
+      @Override
+      public void onSection(String name, double length) {
+         done = true;
+      }
+   }
+}
@@ -0,0 +1,153 @@
+package forbesflutes.wml;
+
+import forbesflutes.wml.WMLData.Joint.TenonDirection;
+import forbesflutes.wml.WMLData.Units;
+
+/** The WMLHandler that builds WMLData from parse events. This is what WMLParser.parse uses. */
+public class WMLTreeBuilder implements WMLHandler {
+   protected WMLData data;
+   protected WMLData.Part currentPart;
+   protected WMLData.Section currentSection;
+   protected WMLData.Joint currentJoint;
+   protected DoubleArrayList xCoords = new DoubleArrayList();  // reused for each profile
+   protected DoubleArrayList yCoords = new DoubleArrayList();
+
+   public WMLTreeBuilder() {
+      data = new WMLData();
+   }
+
+   /** Create a builder that adds to an existing part, as if the parse had reached the
+    *  point where the next record is a section joined by topJoint (which may be null). */
+   public WMLTreeBuilder(WMLData.Part part, WMLData.Joint topJoint) {
+      data = new WMLData();
+      currentPart = part;
+      currentJoint = topJoint;
+   }
+
+   /** Get the data built so far. */
+   public WMLData getData() {
+      return data;
+   }
+
+   @Override
+   public void onHeader(String key, String value) {
+      switch(key) {
+         case WMLParser.id: data.id = value; break;
+         case WMLParser.name: data.name = value; break;
+         case WMLParser.type: data.type = value; break;
+         case WMLParser.subType: data.subType = value; break;
+         case WMLParser.serial: data.serial = value; break;
+         case WMLParser.maker: data.maker = value; break;
+         case WMLParser.owner: data.owner = value; break;
+         case WMLParser.submittedBy: data.submittedBy = value; break;
+         case WMLParser.measuredBy: data.measuredBy = value; break;
+         case WMLParser.url: data.url = value; break;
+         case WMLParser.keyOf: data.keyOf = value; break;
+         default: break;
+      }
+   }
+
+   @Override
+   public void onUnits(Units units) {
+      data.units = units;
+   }
+
+   @Override
+   public void onPitchStandard(double pitchStandard) {
+      data.pitchStandard = pitchStandard;
+   }
+
+   @Override
+   public void onNoteRange(String startNote, String endNote) {
+      currentPart.noteRangeStart = startNote;
+      currentPart.noteRangeEnd = endNote;
+   }
+
+   @Override
+   public void onPart(String name) {
+      endPart();
+      currentPart = new WMLData.Part();
+      currentPart.name = name;
+      data.parts.add(currentPart);
+   }
+
+   @Override
+   public void onSection(String name, double length) {
+      currentSection = new WMLData.Section();
+      currentSection.topJoint = currentJoint;
+      currentJoint = null;
+      currentSection.name = name;
+      currentSection.length = length;
+      currentPart.sections.add(currentSection);
+   }
+
+   @Override
+   public void onAltSection(String name, double length) {
+      if(currentPart.sections.isEmpty()) return;
+      WMLData.Section mainSection = currentPart.sections.get(currentPart.sections.size() - 1);
+      currentSection = new WMLData.Section();
+      currentSection.topJoint = mainSection.topJoint;
+      currentSection.name = name;
+      currentSection.length = length;
+      mainSection.altSections.add(currentSection);
+   }
+
+   @Override
+   public void onJoint(TenonDirection tenonDirection, double tenonLength, double tenonDiam,
+      double extension) {
+      WMLData.Joint joint = new WMLData.Joint();
+      joint.tenonDirection = tenonDirection;
+      joint.tenonLength = tenonLength;
+      joint.tenonDiam = tenonDiam;
+      joint.extension = extension;
+      currentJoint = joint;
+   }
+
+   @Override
+   public void onToneHole(double xCoord, double diam, double bodyDiam, double bodyToTop,
+      double angle) {
+      currentSection.toneHoles.add(xCoord, diam, bodyDiam, bodyToTop, angle);
+   }
+
+   @Override
+   public void onBlowHole(double xCoord, double length, double width, double bodyDiam,
+      double corkDist) {
+      currentSection.blowHole = new WMLData.BlowHole(xCoord, length, width, bodyDiam, corkDist);
+   }
+
+   @Override
+   public void onProfileStart(ProfileKind kind) {
+      xCoords.clear();
+      yCoords.clear();
+   }
+
+   @Override
+   public void onProfilePoint(ProfileKind kind, double xCoord, double diam) {
+      xCoords.add(xCoord);
+      yCoords.add(diam);
+   }
+
+   @Override
+   public void onProfileEnd(ProfileKind kind) {
+      if(currentSection == null) return;  // profile outside a section is dropped
+      ProfileCurve curve = new ProfileCurve(xCoords.toArray(), yCoords.toArray());
+      if(kind == ProfileKind.BORE)
+         currentSection.boreCurve = curve;
+      else
+         currentSection.bodyCurve = curve;
+   }
+
+   @Override
+   public void endDocument() {
+      endPart();
+   }
+
+   /** End anything in progress for a part definition. */
+   protected void endPart() {
+      if(currentPart != null)
+         currentPart.endPart();
+      currentPart = null;
+      currentSection = null;
+      currentJoint = null;
+   }
+}
@@ -1,32 +1,11 @@
 package forbesflutes.wml;
 
-import java.lang.reflect.AnnotatedType;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 
-import forbesflutes.wml.WMLData.Section;
 import forbesflutes.wml.WMLData.Units;
 
 public class WMLUtil {
    
-   /** Convert list of Doubles to an array of primitives. */
-   public static double[] toDoubleArray(List<Double> list) {
-      double[] array = new double[list.size()];
-      for(int i = 0; i < array.length; i++)
-         array[i] = list.get(i);
-      return array;
-   }
-   
-   /** Convert list of Integers to an array of primitives. */
-   public static int[] toIntArray(List<Integer> list) {
-      int[] array = new int[list.size()];
-      for(int i = 0; i < array.length; i++)
-         array[i] = list.get(i);
-      return array;
-   }
-   
    /** Format a float value to an approprate level of precision for the given units:
     *  .01 mm or .001 inch. Remove leading/trailing zeros.
     */
@@ -54,24 +33,51 @@ public class WMLUtil {
       return l1.equals(l2);
    }
    
-   /** Check that two objects are equal. Doesn't check everything, but is sufficient
-    *  for the WMLData classes. Not very efficient, as it uses reflection, but it
-    *  is very convenient. */
-   public static boolean equals(Object o1, Object o2) {
-      if(o1 == null && o2 == null) return true;  // both are null
-      if(o1 == null || o2 == null) return false;  // only one is null
-      if(o1.getClass() != o2.getClass()) return false;
-      for(Field field: o1.getClass().getFields()) {
-          //Class type = field.getType();
-          try {
-            Object val1 = field.get(o1);
-            Object val2 = field.get(o2);
-            if(!Objects.equals(val1, val2)) {
-               System.out.printf("%s.%s %s != %s\n", o1.getClass().getSimpleName(), field.getName(), String.valueOf(val1), String.valueOf(val2));
-               return false;
-            }
-          }
-          catch(Exception e) {e.printStackTrace();}
+   /** The starting value for building a fingerprint with the fingerprint methods. */
+   public static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+   
+   /** Mix a value into a 64-bit structural fingerprint. Fingerprints depend only on the 
+    *  values mixed in (never on identity hash codes), so they are the same in every run. */
+   public static long fingerprint(long hash, long value) {
+      hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+      return hash ^ (hash >>> 29);
+   }
+   
+   /** Mix a double into a fingerprint. As with Double.equals, 0. and -0. differ. */
+   public static long fingerprint(long hash, double value) {
+      return fingerprint(hash, Double.doubleToLongBits(value));
+   }
+   
+   /** Mix a (nullable) string into a fingerprint. */
+   public static long fingerprint(long hash, String str) {
+      if(str == null) return fingerprint(hash, -1L);
+      hash = fingerprint(hash, (long) str.length());
+      for(int i = 0; i < str.length(); i++)
+         hash = fingerprint(hash, (long) str.charAt(i));
+      return hash;
+   }
+   
+   /** Mix a (nullable) curve's points into a fingerprint. */
+   public static long fingerprint(long hash, ProfileCurve curve) {
+      if(curve == null) return fingerprint(hash, -1L);
+      int numPoints = curve.getNumPoints();
+      hash = fingerprint(hash, (long) numPoints);
+      for(int i = 0; i < numPoints; i++) {
+         hash = fingerprint(hash, curve.getX(i));
+         hash = fingerprint(hash, curve.getY(i));
+      }
+      return hash;
+   }
+   
+   /** Check that two (nullable) curves have the same points. */
+   public static boolean curvesAreEqual(ProfileCurve c1, ProfileCurve c2) {
+      if(c1 == c2) return true;
+      if(c1 == null || c2 == null) return false;
+      int numPoints = c1.getNumPoints();
+      if(c2.getNumPoints() != numPoints) return false;
+      for(int i = 0; i < numPoints; i++) {
+         if(Double.compare(c1.getX(i), c2.getX(i)) != 0 || Double.compare(c1.getY(i), c2.getY(i)) != 0)
+            return false;
       }
       return true;
    }
@@ -11,6 +11,7 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.Element;
 
 import forbesflutes.wml.TextFileModel;
 
@@ -19,20 +20,57 @@ public class TextEditorPanel extends LineNumberedTextPane {
    private static final long serialVersionUID = 1L;
    protected final TextFileModel model;
    protected boolean textDirty = false;
+   // range of lines (0-based, current document numbering) changed since the last sync:
+   private int firstChangedLine = -1;
+   private int lastChangedLine = -1;
+   private int lineCount = 1;
 
    public TextEditorPanel(TextFileModel model) {
       this.model = model;
       textArea.getDocument().addDocumentListener(new DocumentListener() {
-         public void insertUpdate(DocumentEvent e) {textDirty = true;}
-         public void removeUpdate(DocumentEvent e) {textDirty = true;}
+         public void insertUpdate(DocumentEvent e) {noteChangedLines(e);}
+         public void removeUpdate(DocumentEvent e) {noteChangedLines(e);}
          public void changedUpdate(DocumentEvent e) {textDirty = true;}
       });
    }
 
+   /** Widen the changed line range to include an edit, so the model can process just those lines. */
+   private void noteChangedLines(DocumentEvent e) {
+      textDirty = true;
+      Element root = textArea.getDocument().getDefaultRootElement();
+      int newLineCount = root.getElementCount();
+      int lineDelta = newLineCount - lineCount;
+      lineCount = newLineCount;
+      int startLine = root.getElementIndex(e.getOffset());
+      int endLine = (e.getType() == DocumentEvent.EventType.INSERT) ? 
+         root.getElementIndex(e.getOffset() + e.getLength()) : startLine;
+      if(firstChangedLine < 0) {
+         firstChangedLine = startLine;
+         lastChangedLine = endLine;
+      }
+      else {
+         // lines after the edit move by lineDelta
+         if(lastChangedLine > startLine)
+            lastChangedLine = Math.max(startLine, lastChangedLine + lineDelta);
+         firstChangedLine = Math.min(firstChangedLine, startLine);
+         lastChangedLine = Math.max(lastChangedLine, endLine);
+      }
+   }
+   
+   /** The text and model are in sync; forget any changes. */
+   private void clearChanges() {
+      textDirty = false;
+      firstChangedLine = lastChangedLine = -1;
+      lineCount = textArea.getDocument().getDefaultRootElement().getElementCount();
+   }
+
    public void syncWithModel() {
       if(textDirty) {
-         model.setText(textArea.getText());
-         textDirty = false;
+         if(firstChangedLine >= 0)
+            model.setText(textArea.getText(), firstChangedLine + 1, lastChangedLine + 1);
+         else
+            model.setText(textArea.getText());
+         clearChanges();
       }
    }
 
@@ -79,7 +117,7 @@ public class TextEditorPanel extends LineNumberedTextPane {
       checkUnsavedChanges();
       model.reset();
       textArea.setText(model.getText());
-      textDirty = false;
+      clearChanges();
    }
 
    public void fileOpen() {
@@ -94,14 +132,14 @@ public class TextEditorPanel extends LineNumberedTextPane {
    void openFile(String filePath) {
       try {model.open(filePath);} catch (IOException e) {handleError("Couldn't open file " + filePath, e);}
       textArea.setText(model.getText());
-      textDirty = false;
+      clearChanges();
    }
 
    public void fileRefresh() {
       checkUnsavedChanges();
       try {model.refresh();} catch (IOException e) {handleError("Couldn't refresh file " + model.getFilePath(), e);}
       textArea.setText(model.getText());
-      textDirty = false;
+      clearChanges();
    }
 
    public void fileExit() {
@@ -13,11 +13,14 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -40,14 +43,15 @@ import org.jfree.data.xy.DefaultXYDataset;
 
 import com.horstmann.corejava.GBC;
 
-import forbesflutes.boreptb.core.XYCurve;
 import forbesflutes.wml.ui.WMLDataTable.WMLDataTableModel;
 import forbesflutes.wml.ui.WMLDataTable.WMLDataTableRow;
 import forbesflutes.wml.WMLData;
 import forbesflutes.wml.WMLFileModel;
+import forbesflutes.wml.BoreComparison;
+import forbesflutes.wml.PartProcessor;
 import forbesflutes.wml.TextFileModel.TextModelListener;
-import forbesflutes.wml.WMLData.Section;
-import forbesflutes.wml.WMLData.ToneHole;
+import forbesflutes.wml.UnitView;
+import forbesflutes.wml.UnitView.SectionView;
 
 public class WMLBoresPanel extends JPanel implements WMLPanel, TextModelListener {
    private static final long serialVersionUID = 1L;
@@ -55,6 +59,10 @@ public class WMLBoresPanel extends JPanel implements WMLPanel, TextModelListener
    private WMLDataTable dataTable = new WMLDataTable();
    private WMLDataTableModel tableModel = dataTable.getModel();
    private JCheckBox showToneHoleBox = new JCheckBox("Show Tone Holes and Section Breaks", false);
+   private JCheckBox showDifferencesBox = new JCheckBox("Show Differences from First Bore", false);
+   private static final String[] alignmentChoices = {"Top", "Blow Hole", "Best Fit"};  // as Alignment
+   private JComboBox<String> alignmentBox = UIUtil.createComboBox(alignmentChoices);
+   private static final int gridPointsPerBore = 2000;  // for differences
    private JTextField xMinField = UIUtil.createTextField(6);
    private JTextField xMaxField = UIUtil.createTextField(6);
    private WMLFileModel model; 
@@ -135,6 +143,9 @@ public class WMLBoresPanel extends JPanel implements WMLPanel, TextModelListener
       optionsPanel.add(unitsPanel, new GBC(1,2).anchor(GBC.WEST));
       showToneHoleBox.setPreferredSize(new Dimension(300,12));
       optionsPanel.add(showToneHoleBox, new GBC(0,3).span(2,1).weight(.5, 0.).insets(UIUtil.smallInset).anchor(GBC.WEST));
+      optionsPanel.add(showDifferencesBox, new GBC(0,4).span(2,1).insets(UIUtil.smallInset).anchor(GBC.WEST));
+      optionsPanel.add(new JLabel("Align By: "), new GBC(0,5).anchor(GBC.EAST));
+      optionsPanel.add(alignmentBox, new GBC(1,5).anchor(GBC.WEST).insets(UIUtil.smallInset));
       
       JButton bigWindowButton = new JButton("BIG Graph");
       bigWindowButton.addActionListener(new ActionListener() {
@@ -187,12 +198,17 @@ public class WMLBoresPanel extends JPanel implements WMLPanel, TextModelListener
       double xMax = getDoubleValue(xMaxField, "X Max");
       if(!Double.isNaN(xMax))
          xMaxField.setText(String.format(numberFormat, xMax * factor));
-      
+      // the rows' data stays in its own units; only the views change
+      graph();
    }
    
    private JFreeChart createBoreChart(WMLData.Units units) {
+      return createBoreChart(units, "Assembled Bore Profiles", "Diameter");
+   }
+   
+   private JFreeChart createBoreChart(WMLData.Units units, String title, String rangeName) {
       String unitName = units.toString().toLowerCase();
-      JFreeChart chart =  ChartFactory.createXYLineChart("Assembled Bore Profiles", "Distance (" + unitName + ")", "Diameter (" + unitName + ")",
+      JFreeChart chart =  ChartFactory.createXYLineChart(title, "Distance (" + unitName + ")", rangeName + " (" + unitName + ")",
          new DefaultXYDataset(),  PlotOrientation.VERTICAL, true, true, false);
       XYPlot plot = (XYPlot) chart.getPlot();
       NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
@@ -200,10 +216,10 @@ public class WMLBoresPanel extends JPanel implements WMLPanel, TextModelListener
       return chart;
    }
    
-   private void addDataToGraph(String name, XYCurve xyCurve, JFreeChart chart) {
+   private void addDataToGraph(String name, double[][] xyValues, JFreeChart chart) {
       XYPlot plot = (XYPlot) chart.getPlot();
       DefaultXYDataset dataset = (DefaultXYDataset) plot.getDataset();
-      dataset.addSeries(name, xyCurve.getXYValues());
+      dataset.addSeries(name, xyValues);
    }
 
    private void addMarkerToGraph(double d, Color color, JFreeChart chart) {
@@ -223,36 +239,139 @@ public class WMLBoresPanel extends JPanel implements WMLPanel, TextModelListener
       return value;
    }
       
+   /** The series for one part of one file. The parts' series are computed concurrently
+    *  by PartProcessor, while the event thread waits for them all. */
+   private static class PartSeries {
+      String label;
+      SectionView assembledSection;
+      double[][] boreXYValues;
+      double[] toneHoleXCoords;
+      double[] sectionBreakXCoords;
+   }
+
+   // a part to chart, and the view and label it's charted with
+   private static class PartItem {
+      final UnitView view;
+      final WMLData.Part part;
+      final String label;
+
+      PartItem(UnitView view, WMLData.Part part, String label) {
+         this.view = view;
+         this.part = part;
+         this.label = label;
+      }
+   }
+
    private JFreeChart createChart() {
       WMLData.Units unitsChoice = mmButton.isSelected() ? WMLData.Units.MM : WMLData.Units.INCH;
-      JFreeChart chart = createBoreChart(unitsChoice);
+      List<PartItem> items = new ArrayList<PartItem>();
       for (WMLDataTableRow row : dataTable.getModel().rows) {
          if (row.isSelected) {
-            WMLData data = row.getDataForUnits(unitsChoice);
-            WMLData.Part part = data.parts.get(0);
-            WMLData.AssembledSectionInfo assembledInfo = part.createAssembledSection();
-            Section assembledSection = assembledInfo.section;
+            UnitView view = row.getView(unitsChoice);
+            if(view == null) continue;
+            WMLData data = view.getData();
             String label = row.alias.isEmpty() ? data.name : row.alias;
-            addDataToGraph(label, assembledSection.boreCurve, chart);
-            if (showToneHoleBox.isSelected()) {
-               Color toneHoleColor = Color.yellow;
-               for(ToneHole toneHole: assembledSection.toneHoles) {
-                  addMarkerToGraph(toneHole.xCoord, toneHoleColor, chart);
-               }
-               Color sectionBreakColor = Color.darkGray;
-               for(int i: assembledInfo.boreSectionBreakIndices) {
-                  addMarkerToGraph(assembledInfo.section.boreCurve.getX(i),
-                        sectionBreakColor, chart);
-               }
+            List<WMLData.Part> parts = new ArrayList<WMLData.Part>();
+            for(WMLData.Part part: data.parts)
+               if(!part.sections.isEmpty()) parts.add(part);
+            for(int i = 0; i < parts.size(); i++) {
+               WMLData.Part part = parts.get(i);
+               String partLabel = label;
+               if(parts.size() > 1)
+                  partLabel += ": " + (part.name == null ? "Part " + (i + 1) : part.name);
+               items.add(new PartItem(view, part, partLabel));
             }
          }
       }
+      // assemble the parts concurrently, then add them to the chart in order
+      final boolean showToneHoles = showToneHoleBox.isSelected();
+      List<PartSeries> allSeries = PartProcessor.map(items, new PartProcessor.Task<PartItem, PartSeries>() {
+         public PartSeries run(PartItem item) {
+            WMLData.AssembledSectionInfo assembledInfo = item.part.getAssembledSection();
+            SectionView assembledSection = item.view.view(assembledInfo.section);
+            PartSeries series = new PartSeries();
+            series.label = item.label;
+            series.assembledSection = assembledSection;
+            series.boreXYValues = assembledSection.getBoreXYValues();
+            if(showToneHoles) {
+               series.toneHoleXCoords = assembledSection.getToneHoleXCoords();
+               int[] breakIndices = assembledInfo.boreSectionBreakIndices;
+               series.sectionBreakXCoords = new double[breakIndices.length];
+               for(int i = 0; i < breakIndices.length; i++)
+                  series.sectionBreakXCoords[i] = assembledSection.getBoreX(breakIndices[i]);
+            }
+            return series;
+         }
+      });
+      JFreeChart chart;
+      if(showDifferencesBox.isSelected() && allSeries.size() > 1)
+         chart = createDifferencesChart(unitsChoice, allSeries, showToneHoles);
+      else {
+         chart = createBoreChart(unitsChoice);
+         for(PartSeries series: allSeries) {
+            addDataToGraph(series.label, series.boreXYValues, chart);
+            if (showToneHoles)
+               addMarkersToGraph(series, 0., chart);
+         }
+      }
       double xMin = getDoubleValue(xMinField, "X Min");
       double xMax = getDoubleValue(xMaxField, "X Max");
       setChartDomainBounds(xMin, xMax, chart);
       return chart;
    }
    
+   // chart the differences of each bore from the first, aligned as chosen
+   private JFreeChart createDifferencesChart(WMLData.Units units, List<PartSeries> allSeries,
+         boolean showToneHoles) {
+      PartSeries reference = allSeries.get(0);
+      List<SectionView> others = new ArrayList<SectionView>();
+      for(PartSeries series: allSeries.subList(1, allSeries.size()))
+         others.add(series.assembledSection);
+      BoreComparison.Alignment alignment = BoreComparison.Alignment.values()[alignmentBox.getSelectedIndex()];
+      double gridStep = reference.assembledSection.getLength() / gridPointsPerBore;
+      JFreeChart chart = createBoreChart(units, "Bore Differences from " + reference.label, "Difference");
+      // on failure the chart is left empty rather than drawn with another alignment than
+      // the one chosen
+      if(alignment == BoreComparison.Alignment.BLOW_HOLE) {
+         for(PartSeries series: allSeries) {
+            if(!series.assembledSection.hasBlowHole()) {
+               JOptionPane.showMessageDialog(this, "Can't align bores by blow hole: " 
+                  + series.label + " has none.");
+               return chart;
+            }
+         }
+      }
+      BoreComparison comparison;
+      try {
+         comparison = BoreComparison.compare(reference.assembledSection, others, alignment, gridStep);
+      } catch(IllegalArgumentException e) {
+         JOptionPane.showMessageDialog(this, "Can't compare bores: " + e.getMessage());
+         return chart;
+      }
+      if(showToneHoles)
+         addMarkersToGraph(reference, 0., chart);
+      for(int i = 0; i < others.size(); i++) {
+         PartSeries series = allSeries.get(i + 1);
+         BoreComparison.Deviation deviation = comparison.deviations.get(i);
+         String label = String.format("%s (rms %.3g, max %.3g)", series.label, deviation.rms, deviation.maxAbs);
+         addDataToGraph(label, deviation.getXYValues(), chart);
+         if(showToneHoles)
+            addMarkersToGraph(series, deviation.shift, chart);
+      }
+      return chart;
+   }
+   
+   private void addMarkersToGraph(PartSeries series, double shift, JFreeChart chart) {
+      Color toneHoleColor = Color.yellow;
+      for(double xCoord: series.toneHoleXCoords) {
+         addMarkerToGraph(xCoord + shift, toneHoleColor, chart);
+      }
+      Color sectionBreakColor = Color.darkGray;
+      for(double xCoord: series.sectionBreakXCoords) {
+         addMarkerToGraph(xCoord + shift, sectionBreakColor, chart);
+      }
+   }
+   
    private void graph() {
       chartPanel.setChart(createChart());
    }
@@ -312,9 +431,12 @@ public class WMLBoresPanel extends JPanel implements WMLPanel, TextModelListener
    public void modelChanged() {
       // file could be new, updated, or closed
       if(model.isValid()) {
-         WMLData data = model.getData();
          // if the file isn't in the table, add it:
-         if(tableModel.findRow(data.id) == -1) {
+         if(tableModel.findRow(model.getData().id) == -1) {
+            // chart data made from the model's snapshot, so the parts assembled on other
+            // threads (see PartProcessor) share nothing with the editor's later parses,
+            // which reuse and re-stitch unchanged sections
+            WMLData data = model.getSnapshot().toWMLData();
             tableModel.addRow(new WMLDataTableRow(true, data));
          }
       }
@@ -17,6 +17,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -24,14 +35,19 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
 import javax.swing.border.TitledBorder;
 
 import com.horstmann.corejava.GBC;
 
 import forbesflutes.wml.ui.WMLDataTable.WMLDataTableModel;
 import forbesflutes.wml.ui.WMLDataTable.WMLDataTableRow;
-import forbesflutes.wml.WMLFileModel;
+import forbesflutes.wml.BoreIndex;
+import forbesflutes.wml.WMLBinary;
+import forbesflutes.wml.WMLData;
 import forbesflutes.wml.WMLParser;
+import forbesflutes.wml.WMLFileModel;
+import forbesflutes.wml.WMLSummary;
 
 public class WMLBrowsePanel extends JPanel implements WMLPanel {
    private static final long serialVersionUID = 1L;
@@ -40,6 +56,22 @@ public class WMLBrowsePanel extends JPanel implements WMLPanel {
    private JTextField dirField = UIUtil.createTextField(20);
    private WMLDataTable dataTable = new WMLDataTable();
    private WMLDataTableModel tableModel = dataTable.getModel();
+   private static final int NUM_SIMILAR = 5;
+   // rows are added to the index when similar files are first looked for after they're found
+   private BoreIndex<WMLDataTableRow> boreIndex = new BoreIndex<WMLDataTableRow>();
+   private Map<WMLDataTableRow, double[]> indexedRows = new IdentityHashMap<WMLDataTableRow, double[]>();
+   private JButton findSimilarButton = new JButton("Find Similar");
+   // parses files for the index, so a large directory doesn't tie up the parts executor
+   private static final ExecutorService indexExecutor = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "wml-index-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
    
    WMLBrowsePanel(WMLFileModel model, WMLController controller) {
       this.model = model;
@@ -73,12 +105,19 @@ public class WMLBrowsePanel extends JPanel implements WMLPanel {
          }         
       });
             
+      findSimilarButton.addActionListener(new ActionListener() {
+         public void actionPerformed(ActionEvent e) {
+            findSimilar();
+         }         
+      });
+            
       JPanel browsePanel = new JPanel(new GridBagLayout());
       browsePanel.setBorder(new TitledBorder("Files"));
       browsePanel.add(scrollPane, new GBC(0,0).span(1,2));
-      JPanel browseButtonPanel = new JPanel(new GridLayout(2, 1, UIUtil.smallInset, UIUtil.smallInset));
+      JPanel browseButtonPanel = new JPanel(new GridLayout(3, 1, UIUtil.smallInset, UIUtil.smallInset));
       browseButtonPanel.add(openInEditorButton);
       browseButtonPanel.add(addToBoresButton);
+      browseButtonPanel.add(findSimilarButton);
       browsePanel.add(browseButtonPanel, new GBC(1,0));
       add(browsePanel, new GBC(0,1));
    }
@@ -91,10 +130,10 @@ public class WMLBrowsePanel extends JPanel implements WMLPanel {
             public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
                String filepath = path.toString();
                if(filepath.endsWith(".wim") || filepath.endsWith(".tsv")) {
-                 WMLParser parser = new WMLParser();
-                 parser.parseFile(filepath);
-                 if(parser.dataIsValid()) {
-                    tableModel.addRow(new WMLDataTableRow(false, parser.getData()));
+                 // only the header is read now; the file is parsed when it's opened or added to Bores
+                 WMLSummary summary = WMLSummary.scanFile(filepath);
+                 if(summary.isValid) {
+                    tableModel.addRow(new WMLDataTableRow(false, summary));
                  }
                  else {
                     JOptionPane.showMessageDialog(WMLBrowsePanel.this, "Could not parse " + filepath);
@@ -112,11 +151,112 @@ public class WMLBrowsePanel extends JPanel implements WMLPanel {
    private void addToBores() {
        for(int i: dataTable.getSelectedRows()) {
           WMLDataTableRow row = tableModel.rows.get(i);
-          controller.boresPanel.addData(row.data);
+          WMLData data = row.getData();
+          if(data != null)
+             controller.boresPanel.addData(data);
+          else
+             JOptionPane.showMessageDialog(this, "Could not parse " + row.filepath);
        }
        dataTable.clearSelection();
    }
 
+   // button action method
+   private void findSimilar() {
+      if(dataTable.getSelectedRowCount() != 1) {
+         JOptionPane.showMessageDialog(this, "Select one file to find files similar to it.");
+         return;
+      }
+      final WMLDataTableRow selected = tableModel.rows.get(dataTable.getSelectedRow());
+      final List<WMLDataTableRow> newRows = new ArrayList<WMLDataTableRow>();
+      final List<String> filepaths = new ArrayList<String>();
+      for(WMLDataTableRow row: tableModel.rows) {
+         if(indexedRows.containsKey(row)) continue;
+         newRows.add(row);
+         filepaths.add(row.filepath);
+      }
+      // parse the rows that aren't in the index yet in the background, then add them and
+      // look for the selected file's neighbours back on the event thread
+      findSimilarButton.setEnabled(false);
+      new SwingWorker<List<double[]>, Void>() {
+         protected List<double[]> doInBackground() throws InterruptedException {
+            return getFeatures(filepaths);
+         }
+
+         protected void done() {
+            findSimilarButton.setEnabled(true);
+            List<double[]> features;
+            try {
+               features = get();
+            } catch(InterruptedException | ExecutionException e) {
+               JOptionPane.showMessageDialog(WMLBrowsePanel.this, "Error indexing files: " + e.getMessage());
+               return;
+            }
+            for(int i = 0; i < newRows.size(); i++) {
+               indexedRows.put(newRows.get(i), features.get(i));
+               if(features.get(i) != null)
+                  boreIndex.add(newRows.get(i), features.get(i));
+            }
+            showSimilar(selected);
+         }
+      }.execute();
+   }
+
+   private void showSimilar(WMLDataTableRow selected) {
+      double[] features = indexedRows.get(selected);
+      if(features == null) {
+         JOptionPane.showMessageDialog(this, "Could not get a bore from " + selected.filepath);
+         return;
+      }
+      StringBuilder message = new StringBuilder("Most similar bores to " + selected.filepath + ":");
+      dataTable.clearSelection();
+      // one more than needed, in case the selected row is among them; but with ties (e.g.
+      // copies of the same file) it may not be, so stop at NUM_SIMILAR
+      int numShown = 0;
+      for(BoreIndex.Neighbor<WMLDataTableRow> neighbor: boreIndex.nearest(features, NUM_SIMILAR + 1)) {
+         if(neighbor.item == selected) continue;
+         if(numShown++ == NUM_SIMILAR) break;
+         int i = tableModel.rows.indexOf(neighbor.item);
+         if(i >= 0)
+            dataTable.addRowSelectionInterval(i, i);
+         message.append(String.format("%n%s (distance %.2f)", neighbor.item.filepath, neighbor.distance));
+      }
+      JOptionPane.showMessageDialog(this, message.toString());
+   }
+
+   // Get the index features of each file, concurrently, in order. The files are loaded
+   // directly rather than through their rows, which belong to the event thread. A file that
+   // can't be read, or whose bore can't be assembled, gets null features, so one bad file
+   // doesn't stop the rest being indexed.
+   private static List<double[]> getFeatures(List<String> filepaths) throws InterruptedException {
+      List<Future<double[]>> futures = new ArrayList<Future<double[]>>(filepaths.size());
+      for(final String filepath: filepaths) {
+         futures.add(indexExecutor.submit(new Callable<double[]>() {
+            public double[] call() {
+               if(filepath == null) return null;
+               try {
+                  // with a sidecar, so indexing the folder again needn't parse
+                  WMLParser.ParseResult result = WMLBinary.load(filepath, true);
+                  return result.isValid ? BoreIndex.getFeatures(result.data) : null;
+               } catch(IOException | RuntimeException e) {
+                  return null;
+               }
+            }
+         }));
+      }
+      List<double[]> features = new ArrayList<double[]>(filepaths.size());
+      try {
+         for(Future<double[]> future: futures)
+            features.add(future.get());
+      } catch(ExecutionException e) {
+         throw new IllegalStateException(e.getCause());  // the task catches what it can
+      } catch(InterruptedException e) {
+         for(Future<double[]> future: futures)
+            future.cancel(true);
+         throw e;
+      }
+      return features;
+   }
+
    // button action method
    private void openInEditor() {
       if(dataTable.getSelectedRowCount() > 1) {
@@ -125,7 +265,7 @@ public class WMLBrowsePanel extends JPanel implements WMLPanel {
       }
       for(int i: dataTable.getSelectedRows()) {
          WMLDataTableRow row = tableModel.rows.get(i);
-         controller.editPanel.openFile(row.data.filepath);
+         controller.editPanel.openFile(row.filepath);
       }
       dataTable.clearSelection();
    }
@@ -4,9 +4,11 @@
 
 package forbesflutes.wml.ui;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.swing.JTable;
@@ -14,7 +16,11 @@ import javax.swing.SwingConstants;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 
+import forbesflutes.wml.WMLBinary;
 import forbesflutes.wml.WMLData;
+import forbesflutes.wml.WMLParser;
+import forbesflutes.wml.WMLSummary;
+import forbesflutes.wml.UnitView;
 
 public class WMLDataTable extends JTable {
     
@@ -44,7 +50,7 @@ public class WMLDataTable extends JTable {
       public int findRow(String id) {
          int rowNum = 0;
          for(WMLDataTableRow row: rows) {
-            if(row.data.id.equals(id))
+            if(Objects.equals(row.id, id))
                return rowNum;
             ++rowNum;
          }
@@ -54,7 +60,7 @@ public class WMLDataTable extends JTable {
       public Set<String> getIds() {
          HashSet<String> ids = new HashSet<String>();
          for(WMLDataTableRow row: rows) 
-            ids.add(row.data.id);
+            ids.add(row.id);
          return ids;
       }
       
@@ -73,34 +79,57 @@ public class WMLDataTable extends JTable {
       }
    }
    
+   /** A row for one file. A row can be created from full data, or from just a summary of 
+    *  the file's header, in which case the file is only parsed when the data is needed. */
    static class WMLDataTableRow {
       boolean isSelected;
       String alias;
-      WMLData data;
-      WMLData mmData;
-      WMLData inchData;
+      final String id;
+      final String name;
+      final WMLData.Units units;
+      final String filepath;  // nullable
+      private WMLData data;   // null until loaded, for rows created from a summary
       
       public WMLDataTableRow(boolean isSelected, WMLData data) {
          this.isSelected = isSelected;
          alias = "";
          this.data = data;
-         if(data.units == WMLData.Units.MM) {
-            mmData = data;
-            inchData = mmData.copy();
-            inchData.convertUnits( WMLData.Units.INCH);
-         }
-         else {
-            inchData = data;
-            mmData = inchData.copy();
-            mmData.convertUnits(WMLData.Units.MM);            
+         id = data.id;
+         name = data.name;
+         units = data.units;
+         filepath = data.getFilepath();
+      }
+      
+      public WMLDataTableRow(boolean isSelected, WMLSummary summary) {
+         this.isSelected = isSelected;
+         alias = "";
+         id = summary.id;
+         name = summary.name;
+         units = summary.units;
+         filepath = summary.filepath;
+      }
+      
+      /** Get the full data, loading the file the first time for rows created from a summary
+       *  (from its sidecar, which is written if it isn't up to date; see WMLBinary.load).
+       *  Returns null if the file can't be read or isn't valid. */
+      public WMLData getData() {
+         if(data == null && filepath != null) {
+            try {
+               WMLParser.ParseResult result = WMLBinary.load(filepath, true);
+               if(result.isValid)
+                  data = result.data;
+            } catch (IOException e) {
+               return null;
+            }
          }
+         return data;
       }
       
-      public WMLData getDataForUnits(WMLData.Units units) {
-         if(units == WMLData.Units.MM)
-            return mmData;
-         else
-            return inchData;
+      /** Get a view of the data in the given units; the data itself isn't converted. 
+       *  Returns null if the data can't be loaded. */
+      public UnitView getView(WMLData.Units units) {
+         WMLData data = getData();
+         return data == null ? null : new UnitView(data, units);
       }
       
       public void setValueAt(int col, Object value) {
@@ -114,10 +143,10 @@ public class WMLDataTable extends JTable {
       public Object getValueAt(int col) {
          switch(col) {
             case 0: return isSelected; 
-            case 1: return data.id; 
-            case 2: return data.name;
+            case 1: return id; 
+            case 2: return name;
             case 3: return alias;
-            case 4: return data.units;
+            case 4: return units;
             default: return null; 
          }
       }
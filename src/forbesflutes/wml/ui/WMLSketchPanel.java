@@ -22,7 +22,6 @@ import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 
-import forbesflutes.boreptb.core.XYCurve;
 import forbesflutes.wml.ui.Pt;
 import forbesflutes.wml.ui.Rectangle;
 import forbesflutes.wml.ui.Transform;
@@ -32,13 +31,15 @@ import forbesflutes.wml.ui.WMLPanel;
 import forbesflutes.wml.ui.Transform.Origin;
 import forbesflutes.wml.WMLData;
 import forbesflutes.wml.WMLFileModel;
+import forbesflutes.wml.PartProcessor;
 import forbesflutes.wml.TextFileModel.TextModelListener;
 import forbesflutes.wml.WMLData.AssembledSectionInfo;
 import forbesflutes.wml.WMLData.BlowHole;
 import forbesflutes.wml.WMLData.Joint;
 import forbesflutes.wml.WMLData.Part;
 import forbesflutes.wml.WMLData.Section;
-import forbesflutes.wml.WMLData.ToneHole;
+import forbesflutes.wml.ProfileCurve;
+import forbesflutes.wml.ToneHoleTable;
 import forbesflutes.wml.WMLData.Joint.TenonDirection;
 import forbesflutes.wml.ui.GraphicsPanel.TextPlacement;
 
@@ -66,7 +67,7 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
       }      
    }
    
-   private void drawProfile(XYCurve curve, Transform worldToSection) {
+   private void drawProfile(ProfileCurve curve, Transform worldToSection) {
       // body profile
       Pt paperPrevPt = null;
       Pt paperMidPt = worldToSection.transform(Pt.origin);
@@ -212,8 +213,9 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
          double xCoord = section.blowHole.xCoord;
          drawSectionX(xCoord, xCoord, maxBodyDiam, worldToRegion, isAssembled, isAssembled);
       }
-      for(ToneHole toneHole: section.toneHoles) {
-         double xCoord = toneHole.xCoord;
+      ToneHoleTable toneHoles = section.toneHoles;
+      for(int i = 0; i < toneHoles.size(); i++) {
+         double xCoord = toneHoles.getXCoord(i);
          drawSectionX(xCoord, xCoord, maxBodyDiam, worldToRegion, isAssembled, isAssembled);
       }
       drawSectionX(section.length, section.length, maxBodyDiam, worldToRegion, isAssembled, isAssembled);
@@ -224,8 +226,10 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
       double maxBodyDiam = section.getMaxBodyDiam();
       double embCoord = section.blowHole.xCoord;
       drawSectionX(embCoord, 0., maxBodyDiam, worldToRegion, false, isAssembled);
-      for(ToneHole toneHole: section.toneHoles) {
-         drawSectionX(toneHole.xCoord, toneHole.xCoord - embCoord, maxBodyDiam, worldToRegion, false, isAssembled);
+      ToneHoleTable toneHoles = section.toneHoles;
+      for(int i = 0; i < toneHoles.size(); i++) {
+         double xCoord = toneHoles.getXCoord(i);
+         drawSectionX(xCoord, xCoord - embCoord, maxBodyDiam, worldToRegion, false, isAssembled);
       }
    }
 
@@ -233,8 +237,9 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
       double maxBodyDiam = section.getMaxBodyDiam();
       if(section.blowHole != null)
          drawBlowHoleSize(section.blowHole, maxBodyDiam, worldToRegion);
-      for(ToneHole toneHole: section.toneHoles) {
-         drawToneHoleDiameter(toneHole, maxBodyDiam, worldToRegion);
+      ToneHoleTable toneHoles = section.toneHoles;
+      for(int i = 0; i < toneHoles.size(); i++) {
+         drawToneHoleDiameter(toneHoles.getXCoord(i), toneHoles.getDiam(i), maxBodyDiam, worldToRegion);
          //double od = section.bodyCurve.interpolateY(toneHole.xCoord);
       }
    }
@@ -247,10 +252,11 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
       drawHoleDimension(blowHole.width, maxBodyDiam, worldToRegion, center, svalue);
    }
 
-   private void drawToneHoleDiameter(ToneHole toneHole, double maxBodyDiam, Transform worldToRegion) {
-      Pt center = new Pt(toneHole.xCoord, 0.);
-      String svalue = UIUtil.formatDiameter(toneHole.diam, model.getUnits());
-      drawHoleDimension(toneHole.diam, maxBodyDiam, worldToRegion, center, svalue);
+   private void drawToneHoleDiameter(double xCoord, double diam, double maxBodyDiam, 
+         Transform worldToRegion) {
+      Pt center = new Pt(xCoord, 0.);
+      String svalue = UIUtil.formatDiameter(diam, model.getUnits());
+      drawHoleDimension(diam, maxBodyDiam, worldToRegion, center, svalue);
    }
 
    private void drawHoleDimension(double diam, double maxBodyDiam,
@@ -289,9 +295,10 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
          Pt arcCenter = paperCenter.add(new Pt(.5 * straightLength, 0.));
          drawEllipticalArcsReflectedInX(arcCenter, paperWidth, paperWidth, -90., 180., paperCenter.getX());
       }
-      for(ToneHole toneHole: section.toneHoles) {
-         Pt worldPt = new Pt(toneHole.xCoord, 0.);
-         double paperDiam = worldToRegion.transformXLength(toneHole.diam);
+      ToneHoleTable toneHoles = section.toneHoles;
+      for(int i = 0; i < toneHoles.size(); i++) {
+         Pt worldPt = new Pt(toneHoles.getXCoord(i), 0.);
+         double paperDiam = worldToRegion.transformXLength(toneHoles.getDiam(i));
          drawCircle(worldToRegion.transform(worldPt), paperDiam);
       }
    }
@@ -409,6 +416,26 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
       return new SectionTransforms(regionBounds, sectionBounds, worldToSectionBox);
    }
    
+   /** Where one part goes on the page: its sections, then (if it has more than one) the
+    *  assembled part below them. */
+   private static class PartLayout {
+      final Part part;
+      final double minBoxY;  // of the first section's box
+      final List<SectionTransforms> sectionTransforms = new ArrayList<SectionTransforms>();
+      AssembledSectionInfo assSectionInfo;  // null for a part with one section
+      SectionTransforms assSectionTransforms;
+
+      PartLayout(Part part, double minBoxY) {
+         this.part = part;
+         this.minBoxY = minBoxY;
+      }
+   }
+   
+   private static int getNumSectionBoxes(Part part) {
+      int numSections = part.sections.size();
+      return numSections > 1 ? numSections + 1 : numSections;
+   }
+   
    private void drawSections(boolean showBore) {
       // part data will be for a section or assembled sections
       // coords are paper coords unless noted
@@ -416,27 +443,61 @@ public class WMLSketchPanel extends GraphicsPanel implements WMLPanel, TextModel
       setH1Font();
       drawText("A Sample Flute", titlePt, TextPlacement.CENTER);
       setDefaultFont();
-      Part part = model.getData().parts.get(0);
-      List<Section> sections = new ArrayList<Section>(part.sections);
-      int numSectionBoxes = sections.size() > 1 ? part.sections.size() + 1 : part.sections.size();
-      double sectionBoxHeight = (paperBounds.getHeight() - 2. * pageMargin) / numSectionBoxes;
-      double minBoxY = paperBounds.getHeight() - pageMargin - sectionBoxHeight;    
-      for(Section section: sections) {
-         SectionTransforms sectionTransforms = 
-            createSectionTransforms(section, minBoxY, sectionBoxHeight, pageMargin);
-         drawSection(section, sectionTransforms, false, showBore) ;
-         // optionally, draw bore in dotted line
-         // draw tone holes
-         //drawLine(new Pt(basicSectionMargin, minBoxY), 
-         //   new Pt(paperBounds.getWidth() - basicSectionMargin, minBoxY));
+      // the parts are stacked down the page, each with its own boxes
+      List<Part> parts = new ArrayList<Part>();
+      int numSectionBoxes = 0;
+      for(Part part: model.getData().parts) {
+         if(part.sections.isEmpty()) continue;
+         parts.add(part);
+         numSectionBoxes += getNumSectionBoxes(part);
+      }
+      if(parts.isEmpty()) return;
+      final double sectionBoxHeight = (paperBounds.getHeight() - 2. * pageMargin) / numSectionBoxes;
+      double minBoxY = paperBounds.getHeight() - pageMargin - sectionBoxHeight;
+      List<PartLayout> layouts = new ArrayList<PartLayout>();
+      for(Part part: parts) {
+         layouts.add(new PartLayout(part, minBoxY));
+         minBoxY -= getNumSectionBoxes(part) * sectionBoxHeight;
+      }
+      // assemble and lay out the parts concurrently; drawing has to be done in turn
+      PartProcessor.map(layouts, new PartProcessor.Task<PartLayout, PartLayout>() {
+         public PartLayout run(PartLayout layout) {
+            layoutPart(layout, sectionBoxHeight);
+            return layout;
+         }
+      });
+      for(int p = 0; p < layouts.size(); p++) {
+         PartLayout layout = layouts.get(p);
+         if(parts.size() > 1) {
+            // label the part in the space above its first section
+            double textHeadroom = .2;
+            Pt textPt = new Pt(endDimensionSpace,
+               layout.sectionTransforms.get(0).regionBounds.getMaxY() - textHeadroom);
+            setH2Font();
+            drawText(layout.part.name == null ? "Part " + (p + 1) :
+               layout.part.name, textPt, TextPlacement.RIGHT);
+            setDefaultFont();
+         }
+         for(int i = 0; i < layout.part.sections.size(); i++)
+            drawSection(layout.part.sections.get(i), layout.sectionTransforms.get(i), false, showBore);
+         if(layout.assSectionInfo != null) {
+            drawSection(layout.assSectionInfo.section, layout.assSectionTransforms, true, false);
+            drawSectionBoundaries(layout.assSectionInfo, layout.assSectionTransforms, false);
+         }
+      }
+   }
+   
+   private void layoutPart(PartLayout layout, double sectionBoxHeight) {
+      double minBoxY = layout.minBoxY;
+      for(Section section: layout.part.sections) {
+         layout.sectionTransforms.add(
+            createSectionTransforms(section, minBoxY, sectionBoxHeight, pageMargin));
          minBoxY -= sectionBoxHeight;
       }
-      if(sections.size()> 1) {
-         AssembledSectionInfo assSectionInfo = part.createAssembledSection();
-         SectionTransforms sectionTransforms = 
-            createSectionTransforms(assSectionInfo.section, minBoxY, sectionBoxHeight, basicSectionMargin);
-          drawSection(assSectionInfo.section, sectionTransforms, true, false);
-          drawSectionBoundaries(assSectionInfo, sectionTransforms, false);
+      if(layout.part.sections.size() > 1) {
+         layout.assSectionInfo = layout.part.getAssembledSection();
+         layout.assSectionTransforms = createSectionTransforms(layout.assSectionInfo.section,
+            minBoxY, sectionBoxHeight, basicSectionMargin);
       }
    }
    